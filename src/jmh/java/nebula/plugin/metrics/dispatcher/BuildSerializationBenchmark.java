@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nebula.plugin.metrics.model.Build;
+import nebula.plugin.metrics.model.Result;
+import nebula.plugin.metrics.model.Task;
+import nebula.plugin.metrics.model.Test;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a {@link Build} with many tasks and tests, using the mapper the dispatchers use.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BuildSerializationBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private ObjectMapper mapper;
+    private Build build;
+
+    @Setup
+    public void setUp() {
+        mapper = AbstractMetricsDispatcher.getDefaultObjectMapper();
+        build = new Build();
+        build.setStartTime(0);
+        build.setElapsedTime(size);
+        build.setResult(Result.success());
+        for (int i = 0; i < size; i++) {
+            build.addTask(new Task(":project" + (i % 100) + ":task" + i, Result.success(), new DateTime(i), 10));
+            build.addTest(new Test("test" + i, "org.example.Test" + (i % 100), "Test suite " + (i % 10), Result.success(), new DateTime(i), 10));
+        }
+    }
+
+    @Benchmark
+    public String serialize() throws Exception {
+        return mapper.writeValueAsString(build);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher;
+
+import com.sun.net.httpserver.HttpServer;
+import nebula.plugin.metrics.MetricsPluginExtension;
+import nebula.plugin.metrics.model.Result;
+import nebula.plugin.metrics.model.Test;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput of events from the dispatcher queue to a local stub HTTP endpoint, including starting the
+ * dispatcher and waiting for it to send everything on shutdown.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DispatcherThroughputBenchmark {
+    @Param({"1000", "10000"})
+    public int events;
+
+    @Param({"false", "true"})
+    public boolean streamTestResults;
+
+    private HttpServer server;
+    private MetricsPluginExtension extension;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) != -1) {
+                    // discard the request body
+                }
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+
+        extension = new MetricsPluginExtension();
+        extension.setDispatcherType("REST");
+        extension.setRestUri("http://localhost:" + server.getAddress().getPort() + "/metrics");
+        extension.setStreamTestResults(streamTestResults);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Benchmark
+    public RestMetricsDispatcher dispatch() throws Exception {
+        RestMetricsDispatcher dispatcher = new RestMetricsDispatcher(extension);
+        dispatcher.startAsync().awaitRunning();
+        for (int i = 0; i < events; i++) {
+            dispatcher.test(new Test("test" + i, "org.example.Test", "Test suite", Result.success(), new DateTime(i), 10));
+        }
+        dispatcher.stopAsync().awaitTerminated(1, TimeUnit.MINUTES);
+        return dispatcher;
+    }
+}
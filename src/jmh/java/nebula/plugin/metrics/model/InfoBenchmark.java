@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sanitization of the environment and system properties captured for every build, and their conversion to
+ * {@link KeyValue} lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class InfoBenchmark {
+    private static final String SANITIZED_PROPERTIES_REGEX = "(?i).*_(TOKEN|KEY|SECRET|PASSWORD)$";
+
+    @Param({"100", "1000"})
+    public int properties;
+
+    private Map<String, String> map;
+    private Info info;
+    private List<String> sanitizedProperties;
+
+    @Setup
+    public void setUp() {
+        map = new HashMap<>();
+        for (int i = 0; i < properties; i++) {
+            String suffix = i % 10 == 0 ? "_TOKEN" : "_VALUE";
+            map.put("PROPERTY_" + i + suffix, "value" + i);
+        }
+        sanitizedProperties = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            sanitizedProperties.add("PROPERTY_" + i + "_VALUE");
+        }
+        info = Info.create(new UnknownTool(), new UnknownTool(), new UnknownTool(), map, map, Collections.<String, String>emptyMap());
+    }
+
+    @Benchmark
+    public Info sanitize() {
+        return Info.sanitize(info, sanitizedProperties, SANITIZED_PROPERTIES_REGEX);
+    }
+
+    @Benchmark
+    public List<KeyValue> mapToKeyValueList() {
+        return KeyValue.mapToKeyValueList(map);
+    }
+}
@@ -23,10 +23,14 @@ import nebula.plugin.metrics.collector.GradleBuildMetricsCollector;
 import nebula.plugin.metrics.collector.GradleTestSuiteCollector;
 import nebula.plugin.metrics.dispatcher.*;
 import nebula.plugin.metrics.model.BuildMetrics;
+import nebula.plugin.metrics.model.KeyFilter;
+import nebula.plugin.metrics.model.PropertiesFileCache;
+import nebula.plugin.metrics.model.StackTraceFingerprints;
 import nebula.plugin.metrics.time.BuildStartedTime;
 import nebula.plugin.metrics.time.Clock;
 import nebula.plugin.metrics.time.MonotonicClock;
 import org.gradle.BuildResult;
+import org.gradle.StartParameter;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
@@ -38,10 +42,6 @@ import org.gradle.api.tasks.testing.Test;
 import javax.inject.Inject;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -52,6 +52,9 @@ public abstract class AbstractMetricsPlugin<T> implements Plugin<T> {
     private MetricsDispatcher dispatcher = new UninitializedMetricsDispatcher();
     private final Clock clock = new MonotonicClock();
     private final BuildInvocationDetails buildInvocationDetails;
+    private GradleBuildMetricsCollector gradleCollector;
+    private MetricsPluginExtension extension = new MetricsPluginExtension();
+    private StackTraceFingerprints stackTraces;
 
     /**
      * Supplier allowing the dispatcher to be fetched lazily, so we can replace the instance for testing.
@@ -59,7 +62,7 @@ public abstract class AbstractMetricsPlugin<T> implements Plugin<T> {
     private final Supplier<MetricsDispatcher> dispatcherSupplier = () -> dispatcher;
 
     private final Action<Project> configureProjectCollectorAction = p -> p.getTasks().withType(Test.class).configureEach(test -> {
-        GradleTestSuiteCollector suiteCollector = new GradleTestSuiteCollector(dispatcherSupplier, test);
+        GradleTestSuiteCollector suiteCollector = new GradleTestSuiteCollector(dispatcherSupplier, test, extension, stackTraces);
         test.addTestListener(suiteCollector);
     });
 
@@ -100,6 +103,7 @@ public abstract class AbstractMetricsPlugin<T> implements Plugin<T> {
         //Using internal API to retrieve build start time but still storing it in our own data structure
         BuildStartedTime buildStartedTime = BuildStartedTime.startingAt(buildInvocationDetails.getBuildStartedTime());
         final GradleBuildMetricsCollector gradleCollector = new GradleBuildMetricsCollector(dispatcherSupplier, buildStartedTime, gradle, buildMetrics, clock);
+        this.gradleCollector = gradleCollector;
         gradle.addListener(gradleCollector);
         gradle.buildFinished(new Closure(null) {
             protected Object doCall(Object arguments) {
@@ -113,22 +117,28 @@ public abstract class AbstractMetricsPlugin<T> implements Plugin<T> {
         return gradle.getStartParameter().isOffline();
     }
 
+    /**
+     * Whether the metrics.enabled project property is false, looking in the places Gradle reads project properties from,
+     * from the highest precedence to the lowest. This runs before projects are configured, so gradle.properties files are
+     * read through the daemon's {@link PropertiesFileCache}, rather than waiting for Gradle to load them.
+     */
     protected boolean isMetricsDisabled(Gradle gradle) {
-        String metricsEnabledParameter = gradle.getStartParameter().getProjectProperties().get(METRICS_ENABLED_PROPERTY);
-        boolean metricsDisabled = metricsEnabledParameter != null && metricsEnabledParameter.equals("false");
-        if(metricsDisabled) {
-            return true;
+        StartParameter startParameter = gradle.getStartParameter();
+        String metricsEnabled = startParameter.getProjectProperties().get(METRICS_ENABLED_PROPERTY);
+        if (metricsEnabled == null) {
+            metricsEnabled = System.getProperty("org.gradle.project." + METRICS_ENABLED_PROPERTY);
         }
-        File gradleProperties = new File(gradle.getStartParameter().getProjectDir(), "gradle.properties");
-        if(gradleProperties.exists()) {
-            try (Stream<String> stream = Files.lines(gradleProperties.toPath())) {
-                return stream.anyMatch(line ->
-                        line.contains(METRICS_ENABLED_PROPERTY) && line.contains("false"));
-            } catch (IOException e) {
-                return false;
-            }
+        if (metricsEnabled == null) {
+            metricsEnabled = System.getenv("ORG_GRADLE_PROJECT_" + METRICS_ENABLED_PROPERTY);
+        }
+        if (metricsEnabled == null) {
+            metricsEnabled = PropertiesFileCache.get(new File(startParameter.getGradleUserHomeDir(), "gradle.properties")).get(METRICS_ENABLED_PROPERTY);
+        }
+        if (metricsEnabled == null) {
+            File projectDir = startParameter.getProjectDir() != null ? startParameter.getProjectDir() : startParameter.getCurrentDir();
+            metricsEnabled = PropertiesFileCache.get(new File(projectDir, "gradle.properties")).get(METRICS_ENABLED_PROPERTY);
         }
-        return false;
+        return metricsEnabled != null && "false".equals(metricsEnabled.trim());
     }
 
     protected MetricsPluginExtension createMetricsExtension(Project project) {
@@ -140,6 +150,7 @@ public abstract class AbstractMetricsPlugin<T> implements Plugin<T> {
         checkState(project == project.getRootProject(), "The metrics plugin may only be applied to the root project");
 
         final MetricsPluginExtension extension = createMetricsExtension(project);
+        this.extension = extension;
 
         if (project.hasProperty(METRICS_ENABLED_PROPERTY) && "false".equals(project.property(METRICS_ENABLED_PROPERTY))) {
             dispatcher = new NoopMetricsDispatcher(extension);
@@ -148,6 +159,9 @@ public abstract class AbstractMetricsPlugin<T> implements Plugin<T> {
         }
 
         project.afterEvaluate(gradleProject -> {
+            if (extension.getSpoolDirectory() == null) {
+                extension.setSpoolDirectory(new File(project.getGradle().getGradleUserHomeDir(), "metrics/spool"));
+            }
             if (dispatcher instanceof UninitializedMetricsDispatcher) {
                 switch (extension.getDispatcherType()) {
                     case ES_HTTP: {
@@ -174,6 +188,20 @@ public abstract class AbstractMetricsPlugin<T> implements Plugin<T> {
                     }
                 }
             }
+            if (extension.getTraceFile() != null && gradleCollector != null) {
+                gradleCollector.startTrace(extension.getTraceFile());
+            }
+            if (gradleCollector != null) {
+                gradleCollector.setPropertyFilters(
+                        new KeyFilter(extension.getEnvironmentVariablesIncludes(), extension.getEnvironmentVariablesExcludes()),
+                        new KeyFilter(extension.getSystemPropertiesIncludes(), extension.getSystemPropertiesExcludes()));
+            }
+            if (extension.isDeduplicateStackTraces()) {
+                stackTraces = new StackTraceFingerprints(extension.getStackTraceMaxFrames());
+                if (gradleCollector != null) {
+                    gradleCollector.setStackTraceFingerprints(stackTraces);
+                }
+            }
             configureProjectCollectors(gradleProject);
         });
     }
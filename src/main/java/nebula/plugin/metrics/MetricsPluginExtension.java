@@ -22,10 +22,12 @@ import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.HashMap;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -65,8 +67,36 @@ public class MetricsPluginExtension {
     private DispatcherType dispatcherType = DispatcherType.ES_HTTP;
     private List<String> sanitizedProperties = new ArrayList<>();
     private String sanitizedPropertiesRegex = "(?i).*_(TOKEN|KEY|SECRET|PASSWORD)$";
+    private List<String> environmentVariablesIncludes = new ArrayList<>();
+    private List<String> environmentVariablesExcludes = new ArrayList<>();
+    private List<String> systemPropertiesIncludes = new ArrayList<>();
+    private List<String> systemPropertiesExcludes = new ArrayList<>();
     private boolean failOnError = true;
     private boolean verboseErrorOutput = false;
+    private boolean streamTestResults = false;
+    private int testResultsBatchSize = 500;
+    private boolean streamTaskResults = false;
+    private boolean summarizeTestResults = false;
+    private int slowestTestsRetained = 10;
+    private boolean deduplicateStackTraces = false;
+    private int stackTraceMaxFrames = 50;
+    private int bulkMaxDocuments = 500;
+    private long bulkMaxBytes = 5 * 1024 * 1024;
+    private long bulkLingerMillis = 1000;
+    private boolean incrementalBuildUpdates = false;
+    private boolean streamingSerialization = false;
+    private boolean restPayloadAsJsonObject = false;
+    private Compression compression = Compression.NONE;
+    private long compressionThreshold = 1024;
+    private boolean spool = false;
+    private File spoolDirectory;
+    private long spoolMaxBytes = 64 * 1024 * 1024;
+    private int httpConnectTimeoutMillis = 5000;
+    private int httpReadTimeoutMillis = 10000;
+    private int httpMaxConnections = 10;
+    private int queueCapacity = 10000;
+    private QueueOverflowPolicy queueOverflowPolicy = QueueOverflowPolicy.BLOCK;
+    private File traceFile;
 
     public String getHostname() {
         return hostname;
@@ -162,6 +192,50 @@ public class MetricsPluginExtension {
         this.sanitizedPropertiesRegex = checkNotNull(sanitizedPropertiesRegex);
     }
 
+    public List<String> getEnvironmentVariablesIncludes() {
+        return environmentVariablesIncludes;
+    }
+
+    /**
+     * Patterns of the environment variables to capture. Every environment variable is captured if there are none.
+     */
+    public void setEnvironmentVariablesIncludes(List<String> environmentVariablesIncludes) {
+        this.environmentVariablesIncludes = checkNotNull(environmentVariablesIncludes);
+    }
+
+    public List<String> getEnvironmentVariablesExcludes() {
+        return environmentVariablesExcludes;
+    }
+
+    /**
+     * Patterns of environment variables that aren't captured, even if they match an include pattern.
+     */
+    public void setEnvironmentVariablesExcludes(List<String> environmentVariablesExcludes) {
+        this.environmentVariablesExcludes = checkNotNull(environmentVariablesExcludes);
+    }
+
+    public List<String> getSystemPropertiesIncludes() {
+        return systemPropertiesIncludes;
+    }
+
+    /**
+     * Patterns of the system properties to capture. Every system property is captured if there are none.
+     */
+    public void setSystemPropertiesIncludes(List<String> systemPropertiesIncludes) {
+        this.systemPropertiesIncludes = checkNotNull(systemPropertiesIncludes);
+    }
+
+    public List<String> getSystemPropertiesExcludes() {
+        return systemPropertiesExcludes;
+    }
+
+    /**
+     * Patterns of system properties that aren't captured, even if they match an include pattern.
+     */
+    public void setSystemPropertiesExcludes(List<String> systemPropertiesExcludes) {
+        this.systemPropertiesExcludes = checkNotNull(systemPropertiesExcludes);
+    }
+
     public String getRestLogEventName() {
         return restLogEventName;
     }
@@ -242,6 +316,317 @@ public class MetricsPluginExtension {
         this.metricsIndexMappingFile = checkNotNull(metricsIndexMappingFile);
     }
 
+    /**
+     * Whether test results are sent to the dispatcher in batches while the build runs, rather than being accumulated
+     * on the build document. When enabled, the build document only carries the aggregate test count and duration.
+     */
+    public boolean isStreamTestResults() {
+        return streamTestResults;
+    }
+
+    public void setStreamTestResults(boolean streamTestResults) {
+        this.streamTestResults = streamTestResults;
+    }
+
+    /**
+     * Whether test durations are summarized per test task and test class, rather than every test being sent to the
+     * dispatcher. Only failed tests and the slowest tests of each test task are sent individually, and the summaries
+     * are added to the build document as reports.
+     */
+    public boolean isSummarizeTestResults() {
+        return summarizeTestResults;
+    }
+
+    public void setSummarizeTestResults(boolean summarizeTestResults) {
+        this.summarizeTestResults = summarizeTestResults;
+    }
+
+    public int getSlowestTestsRetained() {
+        return slowestTestsRetained;
+    }
+
+    /**
+     * How many of the slowest tests of each test task are sent individually when test results are summarized.
+     */
+    public void setSlowestTestsRetained(int slowestTestsRetained) {
+        checkArgument(slowestTestsRetained >= 0, "slowestTestsRetained must not be negative");
+        this.slowestTestsRetained = slowestTestsRetained;
+    }
+
+    /**
+     * Whether failure stack traces are fingerprinted, so that each distinct stack trace is only sent once. Later
+     * failures with the same stack trace only carry the exception message and the fingerprint, and the distinct stack
+     * traces are added to the build document as the {@code stackTraces} report, with the number of times each was seen.
+     */
+    public boolean isDeduplicateStackTraces() {
+        return deduplicateStackTraces;
+    }
+
+    public void setDeduplicateStackTraces(boolean deduplicateStackTraces) {
+        this.deduplicateStackTraces = deduplicateStackTraces;
+    }
+
+    public int getStackTraceMaxFrames() {
+        return stackTraceMaxFrames;
+    }
+
+    /**
+     * How many frames of each exception in a stack trace are kept when stack traces are deduplicated.
+     */
+    public void setStackTraceMaxFrames(int stackTraceMaxFrames) {
+        checkArgument(stackTraceMaxFrames > 0, "stackTraceMaxFrames must be greater than zero");
+        this.stackTraceMaxFrames = stackTraceMaxFrames;
+    }
+
+    /**
+     * The maximum number of streamed test results sent in a single bulk request.
+     */
+    public int getTestResultsBatchSize() {
+        return testResultsBatchSize;
+    }
+
+    public void setTestResultsBatchSize(int testResultsBatchSize) {
+        checkArgument(testResultsBatchSize > 0, "testResultsBatchSize must be greater than zero");
+        this.testResultsBatchSize = testResultsBatchSize;
+    }
+
+    /**
+     * Whether task results are sent to the dispatcher in batches, rather than being accumulated on the build document.
+     */
+    public boolean isStreamTaskResults() {
+        return streamTaskResults;
+    }
+
+    public void setStreamTaskResults(boolean streamTaskResults) {
+        this.streamTaskResults = streamTaskResults;
+    }
+
+    /**
+     * The maximum number of streamed documents sent in a single bulk request, except for test results, which are
+     * batched by {@link #getTestResultsBatchSize()}.
+     */
+    public int getBulkMaxDocuments() {
+        return bulkMaxDocuments;
+    }
+
+    public void setBulkMaxDocuments(int bulkMaxDocuments) {
+        checkArgument(bulkMaxDocuments > 0, "bulkMaxDocuments must be greater than zero");
+        this.bulkMaxDocuments = bulkMaxDocuments;
+    }
+
+    /**
+     * The approximate maximum size of a single bulk request, in bytes.
+     */
+    public long getBulkMaxBytes() {
+        return bulkMaxBytes;
+    }
+
+    public void setBulkMaxBytes(long bulkMaxBytes) {
+        checkArgument(bulkMaxBytes > 0, "bulkMaxBytes must be greater than zero");
+        this.bulkMaxBytes = bulkMaxBytes;
+    }
+
+    /**
+     * How long a streamed document may wait for its batch to fill before the batch is sent anyway, in milliseconds.
+     */
+    public long getBulkLingerMillis() {
+        return bulkLingerMillis;
+    }
+
+    public void setBulkLingerMillis(long bulkLingerMillis) {
+        checkArgument(bulkLingerMillis >= 0, "bulkLingerMillis must not be negative");
+        this.bulkLingerMillis = bulkLingerMillis;
+    }
+
+    /**
+     * Whether the build document is sent in full only the first time. Subsequent uploads send only the properties
+     * that have changed, and only the new elements of lists such as tasks and tests, as an Elasticsearch scripted
+     * update, or as a REST event with a 'patch' payload.
+     */
+    public boolean isIncrementalBuildUpdates() {
+        return incrementalBuildUpdates;
+    }
+
+    public void setIncrementalBuildUpdates(boolean incrementalBuildUpdates) {
+        this.incrementalBuildUpdates = incrementalBuildUpdates;
+    }
+
+    /**
+     * Whether the build document is serialized straight into the request body, rather than to an intermediate string.
+     * Supported by the REST and Splunk dispatchers.
+     */
+    public boolean isStreamingSerialization() {
+        return streamingSerialization;
+    }
+
+    public void setStreamingSerialization(boolean streamingSerialization) {
+        this.streamingSerialization = streamingSerialization;
+    }
+
+    /**
+     * Whether REST payloads embed documents as JSON objects, rather than as escaped JSON strings.
+     */
+    public boolean isRestPayloadAsJsonObject() {
+        return restPayloadAsJsonObject;
+    }
+
+    public void setRestPayloadAsJsonObject(boolean restPayloadAsJsonObject) {
+        this.restPayloadAsJsonObject = restPayloadAsJsonObject;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * The compression applied to request bodies sent by the HTTP based dispatchers, either {@code none} or {@code gzip}.
+     */
+    public void setCompression(String compression) {
+        this.compression = Compression.valueOf(compression.toUpperCase());
+    }
+
+    public long getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Request bodies smaller than this number of bytes are sent uncompressed. Bodies of unknown length, such as
+     * streamed documents, are always compressed.
+     */
+    public void setCompressionThreshold(long compressionThreshold) {
+        checkArgument(compressionThreshold >= 0, "compressionThreshold must not be negative");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Whether documents that would otherwise be sent while the build is finishing are written to a local spool
+     * instead, so the end of the build doesn't wait on the metrics endpoint. The spool is sent by the next build that
+     * uses the same spool directory.
+     */
+    public boolean isSpool() {
+        return spool;
+    }
+
+    public void setSpool(boolean spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * The directory holding the spool. Defaults to a directory in the Gradle user home, so the spool is shared by
+     * every build on the machine. Documents are spooled to a subdirectory for each dispatcher type and endpoint, so a
+     * build only sends documents that were bound for the same destination.
+     */
+    public File getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public void setSpoolDirectory(File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public long getSpoolMaxBytes() {
+        return spoolMaxBytes;
+    }
+
+    /**
+     * The maximum size of the spool. Documents are discarded rather than spooled once it has been reached.
+     */
+    public void setSpoolMaxBytes(long spoolMaxBytes) {
+        checkArgument(spoolMaxBytes > 0, "spoolMaxBytes must be greater than zero");
+        this.spoolMaxBytes = spoolMaxBytes;
+    }
+
+    public int getHttpConnectTimeoutMillis() {
+        return httpConnectTimeoutMillis;
+    }
+
+    /**
+     * The timeout for connecting to the metrics endpoint, and for leasing a connection from the pool.
+     */
+    public void setHttpConnectTimeoutMillis(int httpConnectTimeoutMillis) {
+        checkArgument(httpConnectTimeoutMillis >= 0, "httpConnectTimeoutMillis must not be negative");
+        this.httpConnectTimeoutMillis = httpConnectTimeoutMillis;
+    }
+
+    public int getHttpReadTimeoutMillis() {
+        return httpReadTimeoutMillis;
+    }
+
+    /**
+     * The timeout for waiting on data from the metrics endpoint.
+     */
+    public void setHttpReadTimeoutMillis(int httpReadTimeoutMillis) {
+        checkArgument(httpReadTimeoutMillis >= 0, "httpReadTimeoutMillis must not be negative");
+        this.httpReadTimeoutMillis = httpReadTimeoutMillis;
+    }
+
+    public int getHttpMaxConnections() {
+        return httpMaxConnections;
+    }
+
+    /**
+     * The maximum number of pooled connections to the metrics endpoint. The pool is shared by the builds run by a
+     * daemon, and kept open between them.
+     */
+    public void setHttpMaxConnections(int httpMaxConnections) {
+        checkArgument(httpMaxConnections > 0, "httpMaxConnections must be greater than zero");
+        this.httpMaxConnections = httpMaxConnections;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * The maximum number of events waiting to be sent by the dispatcher. Once the queue is full, events are handled
+     * according to the {@link #setQueueOverflowPolicy(String) queue overflow policy}.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        checkArgument(queueCapacity > 0, "queueCapacity must be greater than zero");
+        this.queueCapacity = queueCapacity;
+    }
+
+    public QueueOverflowPolicy getQueueOverflowPolicy() {
+        return queueOverflowPolicy;
+    }
+
+    /**
+     * What happens to a streamed test or task result when the dispatcher queue is full: {@code block} waits for room,
+     * {@code drop_newest} discards the result, {@code drop_oldest} discards the oldest queued result, and {@code spill}
+     * writes the result to the spool, to be sent by a later build. Other events, which the build document depends on,
+     * are never discarded, and always wait for room.
+     * <p>
+     * Defaults to {@code block}, so no metrics are lost, at the cost of holding up the threads that report them until
+     * the dispatcher catches up with a slow metrics endpoint. The other policies keep the build moving instead.
+     */
+    public void setQueueOverflowPolicy(String queueOverflowPolicy) {
+        this.queueOverflowPolicy = QueueOverflowPolicy.valueOf(queueOverflowPolicy.toUpperCase());
+    }
+
+    public File getTraceFile() {
+        return traceFile;
+    }
+
+    /**
+     * A file to write a Chrome Trace Event timeline of the build to, which can be opened in {@code chrome://tracing}
+     * or Perfetto. No trace is written by default.
+     */
+    public void setTraceFile(File traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    public enum QueueOverflowPolicy {
+        BLOCK,
+        DROP_NEWEST,
+        DROP_OLDEST,
+        SPILL
+    }
+
+    public enum Compression {
+        NONE,
+        GZIP
+    }
+
     public enum DispatcherType {
         ES_HTTP,
         SPLUNK,
@@ -0,0 +1,129 @@
+/*
+ *  Copyright 2015-2018 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.collector;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import nebula.plugin.metrics.MetricsLoggerFactory;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes build operations to a file in the Chrome Trace Event format, so the timeline of a build can be opened in
+ * {@code chrome://tracing} or Perfetto.
+ * <p>
+ * Each operation is appended as a complete event as soon as it finishes, on a lane for the thread that ran it, rather
+ * than assembling the trace when the build finishes. Events are flushed to the file as they're written, and the trace
+ * uses the JSON array format, which trace viewers accept without the closing bracket, so the trace of a build that
+ * crashed or was killed can still be opened.
+ * <p>
+ * Lanes are identified by thread name, so operations recorded before the trace was started can be placed on the
+ * thread that ran them.
+ */
+public final class ChromeTraceWriter implements Closeable {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // every event comes from the build process
+    private static final int PID = 1;
+
+    private final Logger logger = MetricsLoggerFactory.getLogger(ChromeTraceWriter.class);
+    private final JsonGenerator generator;
+    private final Map<String, Integer> threads = new HashMap<>();
+    private boolean failed;
+
+    public ChromeTraceWriter(File file) throws IOException {
+        checkNotNull(file);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        generator = JSON_FACTORY.createGenerator(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8));
+        generator.writeStartArray();
+    }
+
+    /**
+     * Append a complete event for an operation that ran on the current thread.
+     *
+     * @param start  the start time in milliseconds
+     * @param finish the finish time in milliseconds
+     */
+    public void complete(String name, String category, long start, long finish) {
+        complete(name, category, start, finish, Thread.currentThread().getName());
+    }
+
+    /**
+     * Append a complete event for an operation that ran on the named thread.
+     *
+     * @param start  the start time in milliseconds
+     * @param finish the finish time in milliseconds
+     */
+    public synchronized void complete(String name, String category, long start, long finish, String thread) {
+        checkNotNull(name);
+        checkNotNull(category);
+        checkNotNull(thread);
+        if (failed) {
+            return;
+        }
+        try {
+            Integer tid = threads.get(thread);
+            if (tid == null) {
+                tid = threads.size() + 1;
+                threads.put(thread, tid);
+                generator.writeStartObject();
+                generator.writeStringField("name", "thread_name");
+                generator.writeStringField("ph", "M");
+                generator.writeNumberField("pid", PID);
+                generator.writeNumberField("tid", tid);
+                generator.writeObjectFieldStart("args");
+                generator.writeStringField("name", thread);
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            generator.writeStartObject();
+            generator.writeStringField("name", name);
+            generator.writeStringField("cat", category);
+            generator.writeStringField("ph", "X");
+            // trace timestamps and durations are in microseconds
+            generator.writeNumberField("ts", start * 1000);
+            generator.writeNumberField("dur", Math.max(0, finish - start) * 1000);
+            generator.writeNumberField("pid", PID);
+            generator.writeNumberField("tid", tid);
+            generator.writeEndObject();
+            generator.flush();
+        } catch (IOException e) {
+            failed = true;
+            logger.warn("Unable to write build trace, no further events will be written (error message: {})", e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!failed) {
+            generator.writeEndArray();
+        }
+        generator.close();
+    }
+}
@@ -16,25 +16,28 @@
  */
 package nebula.plugin.metrics.collector;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import nebula.plugin.metrics.MetricsLoggerFactory;
 import nebula.plugin.metrics.dispatcher.MetricsDispatcher;
 import nebula.plugin.metrics.model.GradleToolContainer;
 import nebula.plugin.metrics.model.Info;
+import nebula.plugin.metrics.model.KeyFilter;
 import nebula.plugin.metrics.model.Result;
+import nebula.plugin.metrics.model.SlowestOperations;
+import nebula.plugin.metrics.model.StackTraceFingerprints;
 import nebula.plugin.metrics.model.BuildMetrics;
-import nebula.plugin.metrics.model.CompositeOperation;
 import nebula.plugin.metrics.model.ContinuousOperation;
+import nebula.plugin.metrics.model.ExecutionAnalysis;
 import nebula.plugin.metrics.model.ProjectMetrics;
-import nebula.plugin.metrics.model.TaskExecution;
+import nebula.plugin.metrics.model.TaskTimings;
+import nebula.plugin.metrics.model.UnknownTool;
+import nebula.plugin.metrics.model.WorkerUtilization;
 import nebula.plugin.metrics.time.BuildStartedTime;
 import nebula.plugin.metrics.time.Clock;
 import org.gradle.BuildAdapter;
 import org.gradle.BuildResult;
 import org.gradle.StartParameter;
-import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.ProjectEvaluationListener;
 import org.gradle.api.ProjectState;
@@ -48,8 +51,9 @@ import org.gradle.api.tasks.TaskState;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 
-import java.lang.reflect.Method;
-import java.util.HashMap;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -62,6 +66,7 @@ import static org.apache.commons.lang3.exception.ExceptionUtils.getRootCauseMess
 public final class GradleBuildMetricsCollector extends BuildAdapter implements ProjectEvaluationListener, TaskExecutionListener, DependencyResolutionListener {
 
     private static final long TIMEOUT_MS = 5000;
+    private static final int SLOWEST_OPERATIONS = 10;
 
     private final Logger logger = MetricsLoggerFactory.getLogger(GradleBuildMetricsCollector.class);
     private final Supplier<MetricsDispatcher> dispatcherSupplier;
@@ -82,7 +87,69 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
     }
 
     private final Clock clock;
-    private BuildMetrics buildMetrics;
+    private volatile BuildMetrics buildMetrics;
+    private volatile ChromeTraceWriter traceWriter;
+    private volatile StackTraceFingerprints stackTraces;
+    private volatile KeyFilter environmentFilter = KeyFilter.all();
+    private volatile KeyFilter systemPropertiesFilter = KeyFilter.all();
+    private volatile InfoBrokerAdapter infoBroker;
+
+    /**
+     * Only capture the environment variables and system properties accepted by the given filters.
+     */
+    public void setPropertyFilters(KeyFilter environmentFilter, KeyFilter systemPropertiesFilter) {
+        this.environmentFilter = checkNotNull(environmentFilter);
+        this.systemPropertiesFilter = checkNotNull(systemPropertiesFilter);
+    }
+
+    /**
+     * Deduplicate the stack traces of build and task failures with the given fingerprints, which are added to the
+     * build as a report when it finishes.
+     */
+    public void setStackTraceFingerprints(StackTraceFingerprints stackTraces) {
+        this.stackTraces = checkNotNull(stackTraces);
+    }
+
+    /**
+     * Start writing a trace of the build operations to a file, beginning with the operations recorded so far.
+     */
+    public void startTrace(File file) {
+        checkNotNull(file);
+        initializeBuildMetrics();
+        try {
+            traceWriter = new ChromeTraceWriter(file);
+        } catch (IOException e) {
+            logger.warn("Unable to write build trace to {} (error message: {})", file, getRootCauseMessage(e));
+            return;
+        }
+        BuildMetrics buildMetrics = this.buildMetrics;
+        long buildStarted = buildMetrics.getBuildStarted();
+        long settingsEvaluated = buildStarted + buildMetrics.getElapsedSettings();
+        // the build is initialized on the thread that configures it, which is the thread starting the trace
+        String buildThread = Thread.currentThread().getName();
+        trace("startup", "init", buildStarted - buildMetrics.getElapsedStartup(), buildStarted, buildThread);
+        trace("settings", "configure", buildStarted, settingsEvaluated, buildThread);
+        trace("projectsLoading", "configure", settingsEvaluated, settingsEvaluated + buildMetrics.getElapsedProjectsLoading(), buildThread);
+        for (ProjectMetrics projectMetrics : buildMetrics.getProjectProfiles()) {
+            ContinuousOperation configuration = projectMetrics.getConfigurationOperation();
+            trace(configuration.getDescription(), "configure", configuration.getStartTime(), configuration.getFinishTime(), configuration.getWorker());
+        }
+        for (ContinuousOperation operation : buildMetrics.getDependencySetProfiles()) {
+            trace(operation.getDescription(), "resolve", operation.getStartTime(), operation.getFinishTime(), operation.getWorker());
+        }
+    }
+
+    private void trace(String name, String category, long start, long finish) {
+        trace(name, category, start, finish, Thread.currentThread().getName());
+    }
+
+    private void trace(String name, String category, long start, long finish, @Nullable String thread) {
+        ChromeTraceWriter traceWriter = this.traceWriter;
+        // operations that haven't started or finished yet are left out
+        if (traceWriter != null && start > 0 && finish >= start) {
+            traceWriter.complete(name, category, start, finish, thread != null ? thread : Thread.currentThread().getName());
+        }
+    }
 
     @Override
     public void settingsEvaluated(Settings settings) {
@@ -103,7 +170,7 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
     public void beforeEvaluate(Project project) {
         initializeBuildMetrics();
         long now = clock.getCurrentTime();
-        buildMetrics.getProjectProfile(project.getPath()).getConfigurationOperation().setStart(now);
+        buildMetrics.getProjectProfile(project.getPath()).getConfigurationOperation().setWorker(Thread.currentThread().getName()).setStart(now);
     }
 
     @Override
@@ -111,7 +178,8 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
         initializeBuildMetrics();
         long now = clock.getCurrentTime();
         ProjectMetrics projectMetrics = buildMetrics.getProjectProfile(project.getPath());
-        projectMetrics.getConfigurationOperation().setFinish(now);
+        ContinuousOperation configuration = projectMetrics.getConfigurationOperation().setFinish(now);
+        trace(configuration.getDescription(), "configure", configuration.getStartTime(), now);
     }
 
     // TaskExecutionListener
@@ -119,34 +187,33 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
     public void beforeExecute(Task task) {
         initializeBuildMetrics();
         long now = clock.getCurrentTime();
-        Project project = task.getProject();
-        ProjectMetrics projectMetrics = buildMetrics.getProjectProfile(project.getPath());
-        projectMetrics.getTaskProfile(task.getPath()).setStart(now);
+        TaskTimings timings = buildMetrics.getTaskTimings();
+        timings.started(timings.id(task.getProject().getPath(), task.getPath()), now);
     }
 
     @Override
     public void afterExecute(Task task, TaskState state) {
         initializeBuildMetrics();
         long now = clock.getCurrentTime();
-        Project project = task.getProject();
-        ProjectMetrics projectMetrics = buildMetrics.getProjectProfile(project.getPath());
-        TaskExecution taskExecution = projectMetrics.getTaskProfile(task.getPath());
-        taskExecution.setFinish(now);
-        taskExecution.completed(state);
+        TaskTimings timings = buildMetrics.getTaskTimings();
+        int id = timings.id(task.getProject().getPath(), task.getPath());
+        timings.completed(id, now, state);
+        trace(task.getPath(), "task", timings.getStartTime(id), now);
     }
 
     @Override
     public void beforeResolve(ResolvableDependencies dependencies) {
         initializeBuildMetrics();
         long now = clock.getCurrentTime();
-        buildMetrics.getDependencySetProfile(dependencies.getPath()).setStart(now);
+        buildMetrics.getDependencySetProfile(dependencies.getPath()).setWorker(Thread.currentThread().getName()).setStart(now);
     }
 
     @Override
     public void afterResolve(ResolvableDependencies dependencies) {
         initializeBuildMetrics();
         long now = clock.getCurrentTime();
-        buildMetrics.getDependencySetProfile(dependencies.getPath()).setFinish(now);
+        ContinuousOperation operation = buildMetrics.getDependencySetProfile(dependencies.getPath()).setFinish(now);
+        trace(operation.getDescription(), "resolve", operation.getStartTime(), now);
     }
 
 
@@ -173,34 +240,25 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
             dispatcher.started(project); // We register this listener after the build has started, so we fire the start event here instead
 
             GradleToolContainer tool = GradleToolContainer.fromGradle(gradle);
-            Plugin<?> plugin = getNebulaInfoBrokerPlugin(gradleProject);
-            if (plugin == null) {
-                dispatcher.environment(Info.create(tool, gradleProject));
+            InfoBrokerAdapter infoBroker = getInfoBroker(gradleProject);
+            if (!infoBroker.isPresent()) {
+                dispatcher.environment(Info.create(tool, new UnknownTool(), new UnknownTool(), gradleProject, environmentFilter, systemPropertiesFilter));
             } else {
-                GradleInfoCollector collector = new GradleInfoCollector(plugin);
-                dispatcher.environment(Info.create(tool, collector.getSCM(), collector.getCI(), gradleProject));
+                GradleInfoCollector collector = new GradleInfoCollector(infoBroker);
+                dispatcher.environment(Info.create(tool, collector.getSCM(), collector.getCI(), gradleProject, environmentFilter, systemPropertiesFilter));
             }
         } catch (Exception e) {
             logger.error("Unexpected exception in evaluation listener (error message: {})", getRootCauseMessage(e));
         }
     }
 
-    private Map<String, Object> getNebulaInfoBrokerPluginReports(Project gradleProject) {
-        try {
-            Plugin<?> nebulaInfoBrokerPlugin = getNebulaInfoBrokerPlugin(gradleProject);
-            Method method = nebulaInfoBrokerPlugin.getClass().getDeclaredMethod("buildReports");
-            return (Map<String, Object>) method.invoke(nebulaInfoBrokerPlugin);
-        }  catch (Exception e) {
-            return new HashMap<>();
+    private InfoBrokerAdapter getInfoBroker(Project gradleProject) {
+        InfoBrokerAdapter infoBroker = this.infoBroker;
+        if (infoBroker == null) {
+            infoBroker = InfoBrokerAdapter.of(gradleProject);
+            this.infoBroker = infoBroker;
         }
-    }
-
-    private Plugin<?> getNebulaInfoBrokerPlugin(Project gradleProject) {
-        Plugin<?> plugin = gradleProject.getPlugins().findPlugin("nebula.info-broker");
-        if (plugin == null) {
-            plugin = gradleProject.getPlugins().findPlugin("info-broker");
-        }
-        return plugin;
+        return infoBroker;
     }
 
     /*
@@ -210,16 +268,18 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
      */
     public void buildFinishedClosure(BuildResult buildResult) {
         Throwable failure = buildResult.getFailure();
-        Result result = failure == null ? Result.success() : Result.failure(failure);
+        StackTraceFingerprints stackTraces = this.stackTraces;
+        Result result = failure == null ? Result.success() : stackTraces == null ? Result.failure(failure) : stackTraces.failure(failure);
         logger.info("Build finished with result " + result);
         MetricsDispatcher dispatcher = dispatcherSupplier.get();
         dispatcher.result(result);
+        if (stackTraces != null) {
+            dispatcher.report("stackTraces", stackTraces.getFingerprints());
+        }
 
-        Map<String,Object> infoBrokerPluginReports = getNebulaInfoBrokerPluginReports(buildResult.getGradle().getRootProject());
-        if (infoBrokerPluginReports != null) {
-            for (Map.Entry<String, Object> report : infoBrokerPluginReports.entrySet()) {
-                dispatcher.report(report.getKey(), report.getValue());
-            }
+        Map<String, Object> infoBrokerPluginReports = getInfoBroker(buildResult.getGradle().getRootProject()).getReports();
+        for (Map.Entry<String, Object> report : infoBrokerPluginReports.entrySet()) {
+            dispatcher.report(report.getKey(), report.getValue());
         }
 
         buildResultComplete.getAndSet(true);
@@ -234,6 +294,15 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
             buildMetrics.setSuccessful(result.getFailure() == null);
             buildMetrics = null;
         }
+        ChromeTraceWriter traceWriter = this.traceWriter;
+        if (traceWriter != null) {
+            this.traceWriter = null;
+            try {
+                traceWriter.close();
+            } catch (IOException e) {
+                logger.warn("Unable to complete build trace (error message: {})", getRootCauseMessage(e));
+            }
+        }
     }
 
     public void buildFinished(BuildMetrics result) {
@@ -245,51 +314,57 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
         // Initialisation
         MetricsDispatcher dispatcher = this.dispatcherSupplier.get();
         dispatcher.event("startup", "init", startupElapsed);
-        long expectedTotal = startupElapsed;
 
         // Configuration
         dispatcher.event("settings", "configure", settingsElapsed);
-        expectedTotal += settingsElapsed;
         dispatcher.event("projectsLoading", "configure", loadingElapsed);
-        expectedTotal += loadingElapsed;
-        for (ProjectMetrics projectMetrics : result.getProjects()) {
+        for (ProjectMetrics projectMetrics : result.getProjectProfiles()) {
             ContinuousOperation configurationOperation = projectMetrics.getConfigurationOperation();
             long configurationElapsed = configurationOperation.getElapsedTime();
             dispatcher.event(configurationOperation.getDescription(), "configure", configurationElapsed);
-            expectedTotal += configurationElapsed;
         }
 
         // Resolve
-        for (ContinuousOperation operation : result.getDependencySets()) {
+        for (ContinuousOperation operation : result.getDependencySetProfiles()) {
             long resolveElapsed = operation.getElapsedTime();
             dispatcher.event(operation.getDescription(), "resolve", resolveElapsed);
-            expectedTotal += resolveElapsed;
         }
 
         // Execution
-        for (ProjectMetrics projectMetrics : result.getProjects()) {
+        TaskTimings timings = result.getTaskTimings();
+        StackTraceFingerprints stackTraces = this.stackTraces;
+        Map<String, int[]> tasksByProject = timings.getTaskIdsByProject();
+        for (Map.Entry<String, int[]> project : tasksByProject.entrySet()) {
             long totalTaskElapsed = 0;
-            CompositeOperation<TaskExecution> tasks = projectMetrics.getTasks();
-            for (TaskExecution execution : tasks.getOperations()) {
-                Result taskResult = getTaskExecutionResult(execution);
-                long taskElapsed = execution.getElapsedTime();
-                nebula.plugin.metrics.model.Task task = new nebula.plugin.metrics.model.Task(execution.getDescription(), taskResult, new DateTime(execution.getStartTime()), taskElapsed);
+            for (int id : project.getValue()) {
+                long taskElapsed = timings.getElapsedTime(id);
+                Throwable failure = timings.getFailure(id);
+                Result taskResult = stackTraces != null && failure != null ? stackTraces.failure(failure) : timings.getResult(id);
+                nebula.plugin.metrics.model.Task task = new nebula.plugin.metrics.model.Task(timings.getPath(id), taskResult, new DateTime(timings.getStartTime(id)), taskElapsed);
                 dispatcher.task(task);
                 totalTaskElapsed += taskElapsed;
             }
             dispatcher.event("task", "execution", totalTaskElapsed);
-            expectedTotal += totalTaskElapsed; // totalTaskElapsed is equal to result.getElapsedTotalExecutionTime()
         }
+        for (ProjectMetrics projectMetrics : result.getProjectProfiles()) {
+            if (!tasksByProject.containsKey(projectMetrics.getPath())) {
+                dispatcher.event("task", "execution", 0);
+            }
+        }
+        // Summed task times overstate parallel builds, so report how the execution actually overlapped
+        dispatcher.report("executionAnalysis", ExecutionAnalysis.create(timings));
+        dispatcher.report("workerUtilization", WorkerUtilization.create(result));
+        dispatcher.report("slowestOperations", SlowestOperations.create(result, SLOWEST_OPERATIONS));
 
         long elapsedTotal = result.getElapsedTotal();
         dispatcher.duration(result.getBuildStarted(), elapsedTotal);
 
-        // Check the totals agree with the aggregate elapsed times, and log an event with the difference if not
+        // Log an event with the time during which nothing was being measured, if any
         // For instance, Gradle doesn't account for the time taken to download artifacts: http://forums.gradle.org/gradle/topics/profile-report-doesnt-account-for-time-spent-downloading-dependencies
-        if (elapsedTotal < expectedTotal) {
-            long difference = expectedTotal - elapsedTotal;
-            logger.info("Total build time of {}ms is less than the calculated total of {}ms (difference: {}ms). Creating 'unknown' event with type 'other'", expectedTotal, elapsedTotal, difference);
-            dispatcher.event("unknown", "other", difference);
+        long unaccounted = result.getElapsedUnaccounted();
+        if (unaccounted > 0) {
+            logger.info("{}ms of the total build time of {}ms was not spent in any measured operation. Creating 'unknown' event with type 'other'", unaccounted, elapsedTotal);
+            dispatcher.event("unknown", "other", unaccounted);
         }
 
         buildProfileComplete.getAndSet(true);
@@ -325,26 +400,18 @@ public final class GradleBuildMetricsCollector extends BuildAdapter implements P
         if(buildMetrics != null) {
             return;
         }
+        synchronized (this) {
+            if (buildMetrics == null) {
+                createBuildMetrics();
+            }
+        }
+    }
+
+    private void createBuildMetrics() {
         long now = clock.getCurrentTime();
         BuildMetrics buildMetrics = new BuildMetrics(gradle.getStartParameter());
         buildMetrics.setBuildStarted(buildStartedTime.getStartTime());
         buildMetrics.setProfilingStarted(now);
         this.buildMetrics = buildMetrics;
     }
-
-    @VisibleForTesting
-    Result getTaskExecutionResult(TaskExecution taskExecution) {
-        Result result = Result.success();
-        TaskState state = taskExecution.getState();
-        if (state == null || !state.getDidWork()) {
-            result = Result.skipped();
-        } else {
-            //noinspection ThrowableResultOfMethodCallIgnored
-            Throwable failure = state.getFailure();
-            if (failure != null) {
-                result = Result.failure(failure);
-            }
-        }
-        return result;
-    }
 }
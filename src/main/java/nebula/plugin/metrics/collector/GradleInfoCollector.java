@@ -24,8 +24,6 @@ import nebula.plugin.metrics.model.Tool;
 
 import org.gradle.api.Plugin;
 
-import java.lang.reflect.Method;
-import java.util.HashMap;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -34,30 +32,25 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * Collector for Gradle info.
  */
 public class GradleInfoCollector {
-    private final Plugin plugin;
+    private final InfoBrokerAdapter infoBroker;
 
     public GradleInfoCollector(Plugin plugin) {
-        this.plugin = checkNotNull(plugin);
+        this(InfoBrokerAdapter.forPlugin(checkNotNull(plugin)));
+    }
+
+    GradleInfoCollector(InfoBrokerAdapter infoBroker) {
+        this.infoBroker = checkNotNull(infoBroker);
     }
 
     public Tool getSCM() {
-        Map<String, String> manifest = buildManifest();
+        Map<String, String> manifest = infoBroker.getManifest();
         GenericSCM scm = new GenericSCM(manifest.get("Module-Origin"), manifest.get("Change"));
         return new GenericToolContainer(scm);
     }
 
     public Tool getCI() {
-        Map<String, String> manifest = buildManifest();
+        Map<String, String> manifest = infoBroker.getManifest();
         GenericCI ci = new GenericCI(manifest.get("Build-Number"), manifest.get("Build-Job"), manifest.get("Build-Host"), manifest.get("Built-By"), manifest.get("Build-OS"));
         return new GenericToolContainer(ci);
     }
-
-    private Map<String, String> buildManifest() {
-        try {
-            Method method = plugin.getClass().getDeclaredMethod("buildManifest");
-            return (Map<String, String>) method.invoke(plugin);
-        } catch (Exception e) {
-            return new HashMap<>();
-        }
-    }
 }
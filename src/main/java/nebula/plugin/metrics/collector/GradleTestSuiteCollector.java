@@ -18,9 +18,15 @@
 package nebula.plugin.metrics.collector;
 
 import nebula.plugin.metrics.MetricsLoggerFactory;
+import nebula.plugin.metrics.MetricsPluginExtension;
 import nebula.plugin.metrics.dispatcher.MetricsDispatcher;
+import nebula.plugin.metrics.model.DurationHistogram;
 import nebula.plugin.metrics.model.Result;
+import nebula.plugin.metrics.model.StackTraceFingerprints;
 import nebula.plugin.metrics.model.Test;
+import nebula.plugin.metrics.model.TestSuiteSummary;
+import nebula.plugin.metrics.model.TestSummary;
+import nebula.plugin.metrics.model.TopN;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
@@ -31,23 +37,54 @@ import org.gradle.api.tasks.testing.TestResult;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Collector for Gradle test suite metrics, implementing the {@link TestListener} interface.
+ * <p>
+ * When {@link MetricsPluginExtension#isSummarizeTestResults() test results are summarized}, durations are recorded in
+ * histograms per test task and test class, and only failed tests and the slowest tests are sent individually.
  *
  * @author Danny Thomas
  */
 public class GradleTestSuiteCollector implements TestListener {
     private static final Logger logger = MetricsLoggerFactory.getLogger(GradleTestSuiteCollector.class);
+    private static final Comparator<Test> FASTEST_FIRST = Comparator.comparingLong(Test::getElapsedTime)
+            .thenComparing(Test::getClassName, Comparator.reverseOrder())
+            .thenComparing(Test::getMethodName, Comparator.reverseOrder());
     private final Supplier<MetricsDispatcher> dispatcherSupplier;
     private final Task task;
+    private final boolean summarize;
+    private final Summary suiteSummary = new Summary();
+    private final Map<String, Summary> classSummaries = new HashMap<>();
+    private final TopN<Test> slowestTests;
+    private final StackTraceFingerprints stackTraces;
 
     public GradleTestSuiteCollector(Supplier<MetricsDispatcher> dispatcherSupplier, Task task) {
+        this(dispatcherSupplier, task, new MetricsPluginExtension());
+    }
+
+    public GradleTestSuiteCollector(Supplier<MetricsDispatcher> dispatcherSupplier, Task task, MetricsPluginExtension extension) {
+        this(dispatcherSupplier, task, extension, null);
+    }
+
+    /**
+     * @param stackTraces fingerprints to deduplicate failure stack traces with, or null to keep every stack trace
+     */
+    public GradleTestSuiteCollector(Supplier<MetricsDispatcher> dispatcherSupplier, Task task, MetricsPluginExtension extension, @Nullable StackTraceFingerprints stackTraces) {
         this.dispatcherSupplier = checkNotNull(dispatcherSupplier);
+        this.stackTraces = stackTraces;
         this.task = checkNotNull(task);
+        checkNotNull(extension);
+        this.summarize = extension.isSummarizeTestResults();
+        this.slowestTests = new TopN<>(extension.getSlowestTestsRetained(), FASTEST_FIRST);
     }
 
     @Override
@@ -59,6 +96,10 @@ public class GradleTestSuiteCollector implements TestListener {
     public void afterSuite(TestDescriptor suite, TestResult result) {
         checkNotNull(suite);
         checkNotNull(result);
+        // the root suite completes last, once every test of the task has run
+        if (summarize && suite.getParent() == null) {
+            dispatchSummaries();
+        }
     }
 
     @Override
@@ -76,7 +117,39 @@ public class GradleTestSuiteCollector implements TestListener {
         long startTime = testResult.getStartTime();
         long elapsed = testResult.getEndTime() - startTime;
         Test test = new Test(testDescriptor.getName(), testDescriptor.getClassName(), suiteName, result, new DateTime(startTime), elapsed);
-        dispatcherSupplier.get().test(test);
+        if (!summarize) {
+            dispatcherSupplier.get().test(test);
+            return;
+        }
+        summarize(test);
+        if (result.getStatus() == Result.ResultStatus.FAILURE) {
+            dispatcherSupplier.get().test(test);
+        } else {
+            slowestTests.offer(test);
+        }
+    }
+
+    private synchronized void summarize(Test test) {
+        suiteSummary.record(test);
+        Summary classSummary = classSummaries.get(test.getClassName());
+        if (classSummary == null) {
+            classSummary = new Summary();
+            classSummaries.put(test.getClassName(), classSummary);
+        }
+        classSummary.record(test);
+    }
+
+    private synchronized void dispatchSummaries() {
+        MetricsDispatcher dispatcher = dispatcherSupplier.get();
+        for (Test test : slowestTests.get()) {
+            dispatcher.test(test);
+        }
+        List<TestSummary> classes = new ArrayList<>(classSummaries.size());
+        for (Map.Entry<String, Summary> entry : classSummaries.entrySet()) {
+            classes.add(entry.getValue().toTestSummary(entry.getKey()));
+        }
+        classes.sort(Comparator.comparingLong(TestSummary::getElapsedTime).reversed().thenComparing(TestSummary::getName));
+        dispatcher.report("testSummary" + task.getPath(), new TestSuiteSummary(suiteSummary.toTestSummary(task.getPath()), classes));
     }
 
     @VisibleForTesting
@@ -93,7 +166,7 @@ public class GradleTestSuiteCollector implements TestListener {
                 break;
             case FAILURE:
                 //noinspection ConstantConditions
-                result = Result.failure(exceptions);
+                result = stackTraces == null ? Result.failure(exceptions) : stackTraces.failure(exceptions);
                 break;
             default:
                 logger.warn("Test result carried unknown result type '{}'. Assuming success", testResultType);
@@ -101,4 +174,29 @@ public class GradleTestSuiteCollector implements TestListener {
         }
         return result;
     }
+
+    private static final class Summary {
+        private final DurationHistogram durations = new DurationHistogram();
+        private long successCount;
+        private long failureCount;
+        private long skippedCount;
+
+        private void record(Test test) {
+            durations.record(Math.max(0, test.getElapsedTime()));
+            switch (test.getResult().getStatus()) {
+                case FAILURE:
+                    failureCount++;
+                    break;
+                case SKIPPED:
+                    skippedCount++;
+                    break;
+                default:
+                    successCount++;
+            }
+        }
+
+        private TestSummary toTestSummary(String name) {
+            return TestSummary.create(name, durations, successCount, failureCount, skippedCount);
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.collector;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Typed access to the nebula info-broker plugin, which this plugin doesn't depend on, so its methods are looked up
+ * by name.
+ * <p>
+ * The method handles are resolved once per plugin class, so a daemon running many builds doesn't repeat the lookup,
+ * and the manifest is only built once per adapter. When the plugin isn't applied, or doesn't have a method, the
+ * adapter returns empty maps.
+ */
+final class InfoBrokerAdapter {
+    private static final MethodType MAP_GETTER = MethodType.methodType(Map.class, Object.class);
+
+    private static final ClassValue<Handles> HANDLES = new ClassValue<Handles>() {
+        @Override
+        protected Handles computeValue(Class<?> type) {
+            return new Handles(findGetter(type, "buildManifest"), findGetter(type, "buildReports"));
+        }
+    };
+
+    private static final InfoBrokerAdapter ABSENT = new InfoBrokerAdapter(null);
+
+    @Nullable
+    private final Plugin<?> plugin;
+    @Nullable
+    private Map<String, String> manifest;
+
+    private InfoBrokerAdapter(@Nullable Plugin<?> plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Create an adapter for the info-broker plugin applied to a project, or an absent adapter if it isn't applied.
+     */
+    static InfoBrokerAdapter of(Project project) {
+        checkNotNull(project);
+        Plugin<?> plugin = project.getPlugins().findPlugin("nebula.info-broker");
+        if (plugin == null) {
+            plugin = project.getPlugins().findPlugin("info-broker");
+        }
+        return forPlugin(plugin);
+    }
+
+    static InfoBrokerAdapter forPlugin(@Nullable Plugin<?> plugin) {
+        return plugin == null ? ABSENT : new InfoBrokerAdapter(plugin);
+    }
+
+    boolean isPresent() {
+        return plugin != null;
+    }
+
+    /**
+     * The manifest built by the plugin, which is built on the first call and then reused.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized Map<String, String> getManifest() {
+        if (manifest == null) {
+            manifest = plugin == null ? Collections.<String, String>emptyMap() : (Map<String, String>) invoke(HANDLES.get(plugin.getClass()).buildManifest);
+        }
+        return manifest;
+    }
+
+    /**
+     * The reports collected by the plugin, which are only available once the build has finished, so they aren't cached.
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> getReports() {
+        return plugin == null ? Collections.<String, Object>emptyMap() : (Map<String, Object>) invoke(HANDLES.get(plugin.getClass()).buildReports);
+    }
+
+    private Map<?, ?> invoke(@Nullable MethodHandle handle) {
+        if (handle == null) {
+            return Collections.emptyMap();
+        }
+        try {
+            Map<?, ?> result = (Map<?, ?>) handle.invokeExact((Object) plugin);
+            return result == null ? Collections.emptyMap() : result;
+        } catch (Throwable t) {
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            return Collections.emptyMap();
+        }
+    }
+
+    @Nullable
+    private static MethodHandle findGetter(Class<?> type, String name) {
+        try {
+            Method method = type.getMethod(name);
+            if (!Map.class.isAssignableFrom(method.getReturnType())) {
+                return null;
+            }
+            return MethodHandles.publicLookup().unreflect(method).asType(MAP_GETTER);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static final class Handles {
+        @Nullable
+        private final MethodHandle buildManifest;
+        @Nullable
+        private final MethodHandle buildReports;
+
+        private Handles(@Nullable MethodHandle buildManifest, @Nullable MethodHandle buildReports) {
+            this.buildManifest = buildManifest;
+            this.buildReports = buildReports;
+        }
+    }
+}
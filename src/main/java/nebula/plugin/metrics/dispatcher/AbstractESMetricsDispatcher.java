@@ -39,9 +39,9 @@ public abstract class AbstractESMetricsDispatcher extends AbstractMetricsDispatc
             } catch (MalformedURLException e) {
                 throw Throwables.propagate(e);
             }
-            return Optional.of("You can find the metrics for this build at " + url);
+            return withDroppedCount(Optional.of("You can find the metrics for this build at " + url));
         } else {
-            return Optional.absent();
+            return withDroppedCount(Optional.<String>absent());
         }
     }
 
@@ -50,6 +50,11 @@ public abstract class AbstractESMetricsDispatcher extends AbstractMetricsDispatc
         return extension.getIndexName();
     }
 
+    @Override
+    protected String getSpoolDestination() {
+        return super.getSpoolDestination() + '\n' + getURI(extension);
+    }
+
     protected String getURI(MetricsPluginExtension extension) {
         return extension.getFullURI() != null ? extension.getFullURI() : "http://" + extension.getHostname() + ":" + extension.getHttpPort();
     }
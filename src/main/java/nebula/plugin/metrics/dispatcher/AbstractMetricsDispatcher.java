@@ -24,17 +24,34 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import nebula.plugin.metrics.MetricsLoggerFactory;
 import nebula.plugin.metrics.MetricsPluginExtension;
+import nebula.plugin.metrics.MetricsPluginExtension.QueueOverflowPolicy;
 import nebula.plugin.metrics.model.*;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -42,6 +59,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public abstract class AbstractMetricsDispatcher extends AbstractQueuedExecutionThreadService<Runnable> implements MetricsDispatcher {
     protected static final String BUILD_TYPE = "build";
     protected static final String LOG_TYPE = "log";
+    protected static final String TASK_TYPE = "task";
+    protected static final String TEST_TYPE = "test";
 
     protected final Logger logger = MetricsLoggerFactory.getLogger(this.getClass());
     protected final MetricsPluginExtension extension;
@@ -49,6 +68,14 @@ public abstract class AbstractMetricsDispatcher extends AbstractQueuedExecutionT
     protected final ObjectMapper mapper;
     private final boolean async;
     private final Build build;
+    private final BulkBuffer bulkBuffer;
+    @Nullable
+    private volatile MetricsSpool spool;
+    private volatile boolean buildIndexed;
+    private volatile boolean spooling;
+    private volatile Sanitizer sanitizer;
+    // the number of elements of each list on the build document that have been sent, guarded by the dispatcher thread
+    private final Map<String, Integer> sentLengths = new HashMap<>();
 
     protected Optional<String> buildId = Optional.absent();
 
@@ -63,15 +90,41 @@ public abstract class AbstractMetricsDispatcher extends AbstractQueuedExecutionT
     }
 
     protected AbstractMetricsDispatcher(MetricsPluginExtension extension, boolean async) {
-        super(extension.isFailOnError(), extension.isVerboseErrorOutput());
+        super(extension.isFailOnError(), extension.isVerboseErrorOutput(), extension.getQueueCapacity(), extension.getQueueOverflowPolicy());
         this.extension = checkNotNull(extension);
         this.mapper = getObjectMapper();
         this.async = async;
         this.build = new Build();
+        this.bulkBuffer = new BulkBuffer(extension.getBulkMaxDocuments(), extension.getBulkMaxBytes(), extension.getBulkLingerMillis());
+        this.bulkBuffer.setMaxDocuments(TEST_TYPE, extension.getTestResultsBatchSize());
     }
 
+    /**
+     * Create the spool for this dispatcher's destination, if spooling is used. Spool directories are usually shared by
+     * every build on the machine, so each destination spools to its own subdirectory, and a build only drains the
+     * documents that were bound for the same place.
+     */
+    @Nullable
+    private MetricsSpool createSpool() {
+        boolean spoolUsed = extension.isSpool() || extension.getQueueOverflowPolicy() == QueueOverflowPolicy.SPILL;
+        if (!spoolUsed || extension.getSpoolDirectory() == null) {
+            return null;
+        }
+        String destination = Hashing.sha256().hashString(getSpoolDestination(), StandardCharsets.UTF_8).toString().substring(0, 16);
+        return new MetricsSpool(new File(extension.getSpoolDirectory(), destination), extension.getSpoolMaxBytes());
+    }
+
+    /**
+     * Return the mapper used to serialize documents. By default, a single mapper is shared by every dispatcher for the
+     * life of the daemon, because building one and warming its serializer caches is expensive and it is thread safe
+     * once configured. Dispatchers that need a differently configured mapper override this to build their own.
+     */
     protected ObjectMapper getObjectMapper() {
-        return getDefaultObjectMapper();
+        return SharedObjectMapper.INSTANCE;
+    }
+
+    private static final class SharedObjectMapper {
+        private static final ObjectMapper INSTANCE = getDefaultObjectMapper();
     }
 
     /**
@@ -119,44 +172,115 @@ public abstract class AbstractMetricsDispatcher extends AbstractQueuedExecutionT
         // This won't be accurate, but we at least want a value here if we have a failure that causes the duration not to be fired
         build.setStartTime(System.currentTimeMillis());
         startUpClient();
+        spool = createSpool();
 
         // indexBuildModel must be executed synchronously and block the service from continuing to "Running" state
         // because we want to record the state before the build started running. If we don't do this, we're risking
         // a race condition where the build finishes by the time the model is actually indexed.
         indexBuildModel(true);
+
+        MetricsSpool spool = this.spool;
+        if (spool != null) {
+            drainSpool(spool);
+        }
     }
 
     @Override
     protected void postShutDown() throws Exception {
+        logger.debug("Dispatcher queue: {}", getQueueStatistics());
         shutDownClient();
     }
 
     @Override
     protected void beforeShutDown() {
-        // this indexBuildModel also must be executed synchronously or Gradle might kill the Service before
-        // the dispatcher completes its work to upload the final build results.
-        indexBuildModel(true);
+        // from here on the build is waiting on us, so documents are written to the spool for a later build to send
+        spooling = spool != null;
     }
 
     @Override
     public Optional<String> receipt() {
         // by default, metrics dispatchers cannot provide a receipt. Concrete classes may change this behavior.
-        return Optional.absent();
+        return withDroppedCount(Optional.<String>absent());
+    }
+
+    /**
+     * Add the number of documents that were dropped because the dispatcher queue was full to a receipt.
+     */
+    protected final Optional<String> withDroppedCount(Optional<String> receipt) {
+        checkNotNull(receipt);
+        long dropped = getDroppedCount();
+        if (dropped == 0) {
+            return receipt;
+        }
+        String message = dropped + " metrics events were dropped because the dispatcher queue was full";
+        return Optional.of(receipt.isPresent() ? receipt.get() + " (" + message + ")" : message);
     }
 
     private void indexBuildModel(boolean executeSynchronously) {
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                try {
-                    sanitizeProperties(build);
+                Set<String> changes;
+                synchronized (build) {
                     assignBuildId(build);
-                    Object transformed = transformBuild(build);
-                    String json = mapper.writeValueAsString(transformed);
-                    buildId = Optional.of(index(getCollectionName(), BUILD_TYPE, json, buildId));
+                    // changes are drained before serializing, so anything that changes while we're serializing is sent next time
+                    changes = build.drainChanges();
+                }
+                try {
+                    if (spooling) {
+                        String json;
+                        synchronized (build) {
+                            if (!buildId.isPresent()) {
+                                // the document is sent by a later build, so the id can't come from the response
+                                buildId = Optional.of(UUID.randomUUID().toString());
+                                assignBuildId(build);
+                            }
+                            json = mapper.writeValueAsString(transformBuild(build));
+                        }
+                        spool(Collections.singletonList(new MetricsSpool.Record(getCollectionName(), BUILD_TYPE, buildId, json)));
+                        return;
+                    }
+                    if (buildIndexed && extension.isIncrementalBuildUpdates()) {
+                        if (changes.isEmpty()) {
+                            return;
+                        }
+                        Map<String, Integer> lengths = new HashMap<>();
+                        ObjectNode patch = createPatch(changes, lengths);
+                        if (patch != null && patch.get("set").size() == 0 && patch.get("append").size() == 0) {
+                            return;
+                        }
+                        if (patch != null && update(getCollectionName(), BUILD_TYPE, mapper.writeValueAsString(patch), buildId.get())) {
+                            sentLengths.putAll(lengths);
+                            logger.debug("Updated {} on build {}", changes, buildId.get());
+                            return;
+                        }
+                    }
+                    if (extension.isStreamingSerialization()) {
+                        // the document is written while it's being sent, which is too long to hold the lock, so a
+                        // snapshot is taken under the lock and streamed instead
+                        Build snapshot;
+                        synchronized (build) {
+                            snapshot = build.snapshot();
+                        }
+                        buildId = Optional.of(indexDocument(getCollectionName(), BUILD_TYPE, transformBuild(snapshot), buildId));
+                    } else {
+                        String json;
+                        synchronized (build) {
+                            json = mapper.writeValueAsString(transformBuild(build));
+                        }
+                        buildId = Optional.of(index(getCollectionName(), BUILD_TYPE, json, buildId));
+                    }
+                    // how much of each list was sent isn't known, so the next update sends changed lists in full
+                    sentLengths.clear();
+                    buildIndexed = true;
                     logger.info("Build id is {}", buildId.get());
-                } catch (JsonProcessingException e) {
-                    logger.error("Unable to write JSON string value", e);
+                } catch (IOException e) {
+                    build.restoreChanges(changes);
+                    logger.error("Unable to write JSON value", e);
+                } catch (RuntimeException e) {
+                    // the changes weren't sent, so they're sent with the next update instead
+                    build.restoreChanges(changes);
+                    throw e;
                 }
             }
             @Override
@@ -172,8 +296,261 @@ public abstract class AbstractMetricsDispatcher extends AbstractQueuedExecutionT
         }
     }
 
+    /**
+     * Create a partial update of the build document from the changed properties of the document that would be indexed,
+     * so updates have the same content as full documents. Properties are replaced under the 'set' key, except lists
+     * that have only grown since they were last sent, which have their new elements under the 'append' key.
+     *
+     * @param lengths receives the length of each list in the update, to be recorded once the update has been sent
+     * @return the update, or null if the transformed build isn't a JSON object, and can't be partially updated
+     */
+    @Nullable
+    private ObjectNode createPatch(Set<String> changes, Map<String, Integer> lengths) {
+        JsonNode document;
+        synchronized (build) {
+            document = mapper.valueToTree(transformBuild(build));
+        }
+        if (!document.isObject()) {
+            return null;
+        }
+        ObjectNode patch = mapper.createObjectNode();
+        ObjectNode set = patch.putObject("set");
+        ObjectNode append = patch.putObject("append");
+        for (String property : changes) {
+            JsonNode value = document.get(property);
+            if (value == null) {
+                continue;
+            }
+            Integer sent = sentLengths.get(property);
+            if (value.isArray() && sent != null && sent <= value.size()) {
+                if (sent < value.size()) {
+                    ArrayNode tail = append.putArray(property);
+                    for (int i = sent; i < value.size(); i++) {
+                        tail.add(value.get(i));
+                    }
+                }
+            } else {
+                set.set(property, value);
+            }
+            if (value.isArray()) {
+                lengths.put(property, value.size());
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * Queue a document to be sent as part of a bulk request, rather than on the build document.
+     */
+    private void bulk(String type, Object document) {
+        queue(new BulkAction(type, document));
+    }
+
+    private final class BulkAction implements Runnable {
+        private final String type;
+        private final Object document;
+
+        private BulkAction(String type, Object document) {
+            this.type = type;
+            this.document = document;
+        }
+
+        private String serialize() throws JsonProcessingException {
+            ObjectNode node = mapper.valueToTree(document);
+            if (buildId.isPresent()) {
+                node.put("buildId", buildId.get());
+            }
+            return mapper.writeValueAsString(node);
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<String> batch = bulkBuffer.add(type, serialize(), System.currentTimeMillis());
+                if (batch != null) {
+                    sendBatch(type, batch);
+                }
+            } catch (JsonProcessingException e) {
+                logger.error("Unable to write JSON string value", e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "AbstractMetricsDispatcher.bulk(" + type + ")";
+        }
+    }
+
+    @Override
+    protected boolean isDroppable(Runnable action) {
+        checkNotNull(action);
+        // losing a streamed document loses that document alone, while the build model and spool drain are needed for
+        // everything else to be sent and associated with the build
+        return action instanceof BulkAction;
+    }
+
+    @Override
+    protected boolean spill(Runnable action) {
+        checkNotNull(action);
+        MetricsSpool spool = this.spool;
+        // only streamed documents can be spilled, the build document is indexed again at the end of the build anyway
+        if (spool == null || !(action instanceof BulkAction)) {
+            return false;
+        }
+        BulkAction bulkAction = (BulkAction) action;
+        try {
+            return spool.append(Collections.singletonList(new MetricsSpool.Record(getCollectionName(), bulkAction.type, buildId, bulkAction.serialize())));
+        } catch (IOException e) {
+            logger.error("Unable to write to metrics spool", e);
+            return false;
+        }
+    }
+
+    @Override
+    @Nullable
+    protected Runnable dueAction() {
+        final Map<String, List<String>> expired = bulkBuffer.drainExpired(System.currentTimeMillis());
+        if (expired.isEmpty()) {
+            return null;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                bulkIndex(expired);
+            }
+
+            @Override
+            public String toString() {
+                return "AbstractMetricsDispatcher.bulkIndex(" + expired.keySet() + ")";
+            }
+        };
+    }
+
+    @Override
+    protected long dueDelayMillis() {
+        return bulkBuffer.millisUntilExpiry(System.currentTimeMillis());
+    }
+
+    @Override
+    protected void afterDrain() {
+        // documents queued before shutdown have now been buffered, so anything left is sent regardless of size, before
+        // the final build model, so the aggregate counts on the build document agree with the documents that were sent
+        bulkIndex(bulkBuffer.drainAll());
+        // this indexBuildModel also must be executed synchronously or Gradle might kill the Service before
+        // the dispatcher completes its work to upload the final build results.
+        indexBuildModel(true);
+    }
+
+    private void bulkIndex(Map<String, List<String>> batches) {
+        for (Map.Entry<String, List<String>> batch : batches.entrySet()) {
+            sendBatch(batch.getKey(), batch.getValue());
+        }
+    }
+
+    private void sendBatch(String type, List<String> batch) {
+        if (spooling) {
+            List<MetricsSpool.Record> records = new ArrayList<>(batch.size());
+            for (String source : batch) {
+                records.add(new MetricsSpool.Record(getCollectionName(), type, buildId, source));
+            }
+            spool(records);
+        } else {
+            bulkIndex(getCollectionName(), type, buildId, batch);
+        }
+    }
+
+    private void spool(List<MetricsSpool.Record> records) {
+        MetricsSpool spool = checkNotNull(this.spool);
+        try {
+            if (!spool.append(records)) {
+                logger.warn("Metrics spool has reached its maximum size, discarding {} documents", records.size());
+            }
+        } catch (IOException e) {
+            logger.error("Unable to write to metrics spool", e);
+        }
+    }
+
+    /**
+     * Send the documents spooled by earlier builds.
+     */
+    private void drainSpool(final MetricsSpool spool) {
+        queue(new Runnable() {
+            @Override
+            public void run() {
+                List<MetricsSpool.Record> records;
+                try {
+                    records = spool.drain();
+                } catch (IOException e) {
+                    logger.error("Unable to read metrics spool", e);
+                    return;
+                }
+                if (!records.isEmpty()) {
+                    logger.info("Sending {} spooled metrics documents", records.size());
+                    send(groupSpooledRecords(records));
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "AbstractMetricsDispatcher.drainSpool()";
+            }
+        });
+    }
+
+    /**
+     * Group spooled records into the requests that send them. Build documents are spooled each time they change, so
+     * only the last copy of each is sent, and other documents are batched by destination.
+     */
+    private List<List<MetricsSpool.Record>> groupSpooledRecords(List<MetricsSpool.Record> records) {
+        Map<String, List<MetricsSpool.Record>> groups = new LinkedHashMap<>();
+        for (MetricsSpool.Record record : records) {
+            String destination = record.getIndexName() + '\n' + record.getType() + '\n' + record.getBuildId().or("");
+            List<MetricsSpool.Record> group = groups.get(destination);
+            if (BUILD_TYPE.equals(record.getType()) && record.getBuildId().isPresent()) {
+                groups.put(destination, Collections.singletonList(record));
+            } else if (group == null) {
+                group = new ArrayList<>();
+                group.add(record);
+                groups.put(destination, group);
+            } else {
+                group.add(record);
+            }
+        }
+        List<List<MetricsSpool.Record>> requests = new ArrayList<>();
+        for (List<MetricsSpool.Record> group : groups.values()) {
+            requests.addAll(Lists.partition(group, bulkBuffer.getMaxDocuments(group.get(0).getType())));
+        }
+        return requests;
+    }
+
+    private void send(List<List<MetricsSpool.Record>> requests) {
+        for (int i = 0; i < requests.size(); i++) {
+            if (state() != State.STARTING && state() != State.RUNNING) {
+                // the build has finished, so the rest waits for the next one rather than holding up this one
+                spool(Lists.newArrayList(Iterables.concat(requests.subList(i, requests.size()))));
+                return;
+            }
+            List<MetricsSpool.Record> request = requests.get(i);
+            MetricsSpool.Record first = request.get(0);
+            try {
+                if (request.size() == 1 && BUILD_TYPE.equals(first.getType()) && first.getBuildId().isPresent()) {
+                    indexSpooled(first.getIndexName(), first.getType(), first.getSource(), first.getBuildId().get());
+                } else {
+                    List<String> sources = new ArrayList<>(request.size());
+                    for (MetricsSpool.Record record : request) {
+                        sources.add(record.getSource());
+                    }
+                    bulkIndex(first.getIndexName(), first.getType(), first.getBuildId(), sources);
+                }
+            } catch (RuntimeException e) {
+                spool(Lists.newArrayList(Iterables.concat(requests.subList(i, requests.size()))));
+                throw e;
+            }
+        }
+    }
+
     private void assignBuildId(Build build) {
-        if(buildId.isPresent()) {
+        if(buildId.isPresent() && !buildId.get().equals(build.getBuildId())) {
             build.setBuildId(buildId.get());
         }
     }
@@ -186,55 +563,94 @@ public abstract class AbstractMetricsDispatcher extends AbstractQueuedExecutionT
         return build;
     }
 
-    private void sanitizeProperties(Build build) {
-        Info info = build.getInfo();
-        if (info != null) {
-            build.setInfo(Info.sanitize(info, extension.getSanitizedProperties(), extension.getSanitizedPropertiesRegex()));
+    private Info sanitizeProperties(Info info) {
+        Sanitizer sanitizer = this.sanitizer;
+        List<String> sanitizedProperties = extension.getSanitizedProperties();
+        String sanitizedPropertiesRegex = extension.getSanitizedPropertiesRegex();
+        // the sanitizer caches its decisions, so it's only replaced if the configuration has changed
+        if (sanitizer == null || !sanitizer.isConfiguredWith(sanitizedProperties, sanitizedPropertiesRegex)) {
+            sanitizer = new Sanitizer(sanitizedProperties, sanitizedPropertiesRegex);
+            this.sanitizer = sanitizer;
         }
+        return sanitizer.sanitize(info);
     }
 
     @Override
     public final void started(Project project) {
-        build.setProject(project);
+        synchronized (build) {
+            build.setProject(project);
+        }
         indexBuildModel(false);
     }
 
     @Override
     public final void duration(long startTime, long elapsedTime) {
-        build.setStartTime(startTime);
-        build.setElapsedTime(elapsedTime);
+        synchronized (build) {
+            build.setStartTime(startTime);
+            build.setElapsedTime(elapsedTime);
+        }
     }
 
     @Override
     public final void environment(Info info) {
-        build.setInfo(info);
+        // sanitized once on the way in, rather than every time the build is indexed
+        Info sanitized = sanitizeProperties(info);
+        synchronized (build) {
+            build.setInfo(sanitized);
+        }
     }
 
     @Override
     public final void result(Result result) {
-        build.setResult(result);
+        synchronized (build) {
+            build.setResult(result);
+        }
     }
 
     @Override
     public final void event(String description, String type, long elapsedTime) {
-        build.addEvent(new Event(description, type, elapsedTime));
+        Event event = new Event(description, type, elapsedTime);
+        synchronized (build) {
+            build.addEvent(event);
+        }
     }
 
     @Override
     public final void task(Task task) {
-        build.addTask(task);
+        if (extension.isStreamTaskResults()) {
+            synchronized (build) {
+                build.countTask(task);
+            }
+            bulk(TASK_TYPE, task);
+        } else {
+            synchronized (build) {
+                build.addTask(task);
+            }
+        }
     }
 
     @Override
     public final void test(Test test) {
-        build.addTest(test);
+        // test listeners for separate test tasks may be notified concurrently
+        if (extension.isStreamTestResults()) {
+            synchronized (build) {
+                build.countTest(test);
+            }
+            bulk(TEST_TYPE, test);
+        } else {
+            synchronized (build) {
+                build.addTest(test);
+            }
+        }
     }
 
     @Override
     public void report(String reportName, Object report) {
         checkNotNull(reportName);
         checkNotNull(report);
-        build.addBuildReport(reportName, report);
+        synchronized (build) {
+            build.addBuildReport(reportName, report);
+        }
     }
 
     protected void startUpClient() {
@@ -251,5 +667,49 @@ public abstract class AbstractMetricsDispatcher extends AbstractQueuedExecutionT
 
     protected abstract String index(String indexName, String type, String source, Optional<String> id);
 
+    /**
+     * Identify where this dispatcher sends documents, so documents spooled for one destination are never sent to
+     * another. Dispatchers with a configurable endpoint add it to the destination.
+     */
+    protected String getSpoolDestination() {
+        return getClass().getName() + '\n' + getCollectionName();
+    }
+
+    /**
+     * Index a document that has not been serialized yet. Dispatchers that can serialize the document straight into
+     * the request body override this to avoid holding the serialized document in memory. By default, the document is
+     * serialized to a string and passed to {@link #index(String, String, String, Optional)}.
+     */
+    protected String indexDocument(String indexName, String type, Object document, Optional<String> id) throws IOException {
+        return index(indexName, type, mapper.writeValueAsString(document), id);
+    }
+
+    /**
+     * Apply a partial update to a document that has already been indexed. The source is a JSON object with the
+     * properties that have changed since the document was last sent under the 'set' key, to replace the current
+     * values, and the new elements of lists that have grown under the 'append' key, to be added to the end of them.
+     *
+     * @return true if the update was applied, or false if the dispatcher can't apply partial updates, in which case
+     * the full document is indexed instead
+     */
+    protected boolean update(String indexName, String type, String source, String id) {
+        return false;
+    }
+
     protected abstract void bulkIndex(String indexName, String type, Collection<String> sources);
+
+    /**
+     * Index a batch of documents belonging to the given build, which isn't necessarily the current build when sending
+     * documents spooled by an earlier build. By default, the build id is ignored, because every document carries it.
+     */
+    protected void bulkIndex(String indexName, String type, Optional<String> buildId, Collection<String> sources) {
+        bulkIndex(indexName, type, sources);
+    }
+
+    /**
+     * Index a build document spooled by an earlier build.
+     */
+    protected String indexSpooled(String indexName, String type, String source, String id) {
+        return index(indexName, type, source, Optional.of(id));
+    }
 }
@@ -22,6 +22,8 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import nebula.plugin.metrics.MetricsPluginExtension.QueueOverflowPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,9 +31,14 @@ import javax.annotation.Nullable;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -45,33 +52,100 @@ import static org.apache.commons.lang3.exception.ExceptionUtils.getRootCauseMess
  */
 public abstract class AbstractQueuedExecutionThreadService<E> extends AbstractExecutionThreadService {
     private static final Set<State> QUEUE_AVAILABLE_STATES = Sets.newHashSet(State.STARTING, State.RUNNING, State.STOPPING);
+    /**
+     * Threads for running services, kept between builds so a daemon doesn't start a new thread for every build.
+     */
+    private static final Executor SERVICE_THREADS = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.MINUTES,
+            new SynchronousQueue<Runnable>(), new ThreadFactoryBuilder().setNameFormat("metrics-dispatcher-%d").setDaemon(true).build());
     // We can't use the MetricsLoggerFactory here, or we'll get a feedback loop from the debug statements in the indexing critical paths
     private final Logger logger = LoggerFactory.getLogger(AbstractExecutionThreadService.class);
-    private final BlockingQueue<E> queue;
+    private final BlockingQueue<Queued<E>> queue;
     private final boolean failOnError;
     private final AtomicBoolean failed = new AtomicBoolean();
     private final boolean verboseErrorOuput;
+    private final QueueOverflowPolicy overflowPolicy;
+    private volatile boolean stopRequested;
+    @Nullable
+    private volatile Thread serviceThread;
+    /**
+     * Queued by {@link #triggerShutdown()} to wake the service thread, which returns from {@link #run()} once it has
+     * executed the actions queued ahead of it.
+     */
+    private final Queued<E> stop = new Queued<>(null);
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong totalQueuedNanos = new AtomicLong();
+    private final AtomicLong maxQueuedNanos = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong droppedCount = new AtomicLong();
 
     public AbstractQueuedExecutionThreadService(boolean failOnError, boolean verboseErrorOuput) {
-        this(new LinkedBlockingQueue<E>(), failOnError, verboseErrorOuput);
+        this(failOnError, verboseErrorOuput, Integer.MAX_VALUE, QueueOverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Create a service with a bounded queue.
+     *
+     * @param capacity the maximum number of actions waiting in the queue
+     * @param overflowPolicy what to do with an action queued while the queue is full
+     */
+    public AbstractQueuedExecutionThreadService(boolean failOnError, boolean verboseErrorOuput, int capacity, QueueOverflowPolicy overflowPolicy) {
+        this(new LinkedBlockingQueue<Queued<E>>(capacity), failOnError, verboseErrorOuput, overflowPolicy);
     }
 
     @VisibleForTesting
-    AbstractQueuedExecutionThreadService(BlockingQueue<E> queue, boolean failOnError, boolean verboseErrorOutput) {
+    AbstractQueuedExecutionThreadService(BlockingQueue<Queued<E>> queue, boolean failOnError, boolean verboseErrorOutput, QueueOverflowPolicy overflowPolicy) {
         this.queue = checkNotNull(queue);
         this.failOnError = failOnError;
         this.verboseErrorOuput = verboseErrorOutput;
+        this.overflowPolicy = checkNotNull(overflowPolicy);
     }
 
     protected abstract void execute(E action) throws Exception;
 
+    @Override
+    protected Executor executor() {
+        // startUp, run and shutDown all run on the thread the service is executed on, which is recorded before any of
+        // them, so actions queued from any of them are recognised as coming from the service thread
+        return command -> SERVICE_THREADS.execute(() -> {
+            serviceThread = Thread.currentThread();
+            try {
+                command.run();
+            } finally {
+                serviceThread = null;
+            }
+        });
+    }
+
     @Override
     protected final void run() throws Exception {
-        while (isRunning() || !queue.isEmpty()) {
-            E action = queue.poll(100, TimeUnit.MILLISECONDS);
-            doExecute(action);
+        while (!(stopRequested && queue.isEmpty())) {
+            // block until there's something to do, rather than waking up periodically to check
+            long dueDelayMillis = dueDelayMillis();
+            Queued<E> queued = dueDelayMillis == Long.MAX_VALUE ? queue.take() : queue.poll(dueDelayMillis, TimeUnit.MILLISECONDS);
+            if (queued == stop) {
+                break;
+            }
+            if (queued != null) {
+                doExecute(dequeued(queued));
+            }
+            doExecute(dueAction());
         }
-        logger.debug("Service is not running and queue is empty, returning from run()");
+        logger.debug("Service is not running and queued actions have been executed, returning from run()");
+    }
+
+    @Override
+    protected final void triggerShutdown() {
+        stopRequested = true;
+        // if the queue is full, the service thread isn't waiting on it and will see the flag before it waits again
+        queue.offer(stop);
+    }
+
+    private E dequeued(Queued<E> queued) {
+        long queuedNanos = System.nanoTime() - queued.enqueuedNanos;
+        executedCount.incrementAndGet();
+        totalQueuedNanos.addAndGet(queuedNanos);
+        maxQueuedNanos.accumulateAndGet(queuedNanos, Math::max);
+        return queued.action;
     }
 
     private void doExecute(@Nullable E action) {
@@ -84,7 +158,7 @@ public abstract class AbstractQueuedExecutionThreadService<E> extends AbstractEx
             logger.debug("Error executing metrics action {}: {}", action, getRootCauseMessage(e));
             if (failOnError) {
                 logger.debug("Shutting down {} due to previous failure", this);
-                queue.clear();
+                clearQueue();
                 failed.set(true);
                 if (verboseErrorOuput)
                     throw Throwables.propagate(e);
@@ -92,22 +166,54 @@ public abstract class AbstractQueuedExecutionThreadService<E> extends AbstractEx
         }
     }
 
+    private void clearQueue() {
+        List<Queued<E>> cleared = Lists.newArrayList();
+        queue.drainTo(cleared);
+        if (cleared.contains(stop)) {
+            queue.offer(stop);
+        }
+    }
+
     protected final boolean hasFailed() {
         return failed.get();
     }
 
+    /**
+     * Return statistics for the actions queued so far.
+     */
+    public final QueueStatistics getQueueStatistics() {
+        long executed = executedCount.get();
+        return new QueueStatistics(
+                Math.max(queue.size() - (queue.contains(stop) ? 1 : 0), 0),
+                maxDepth.get(),
+                executed,
+                executed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalQueuedNanos.get() / executed),
+                TimeUnit.NANOSECONDS.toMillis(maxQueuedNanos.get()),
+                droppedCount.get());
+    }
+
+    /**
+     * Return the number of actions that were discarded because the queue was full.
+     */
+    protected final long getDroppedCount() {
+        return droppedCount.get();
+    }
+
     @Override
     protected final void shutDown() throws Exception {
         try {
             beforeShutDown(); // We want any problems with the before shutdown hook to prevent queue draining, so we handle that inside this try
 
             logger.debug("Shutting down queued execution service {}. Draining queue...", this);
-            List<E> remaining = Lists.newArrayListWithCapacity(queue.size());
+            List<Queued<E>> remaining = Lists.newArrayListWithCapacity(queue.size());
             queue.drainTo(remaining);
-            for (E e : remaining) {
-                execute(e);
+            for (Queued<E> queued : remaining) {
+                if (queued != stop) {
+                    execute(dequeued(queued));
+                }
             }
             checkState(queue.isEmpty(), "The queue should have been drained before shutdown");
+            afterDrain();
         } catch (Exception e) {
             logger.error("An error occurred during shutdown (error message: )", getRootCauseMessage(e));
         }
@@ -117,21 +223,136 @@ public abstract class AbstractQueuedExecutionThreadService<E> extends AbstractEx
     protected void beforeShutDown() throws Exception {
     }
 
+    /**
+     * Called during shutdown once all queued actions have been executed.
+     */
+    protected void afterDrain() throws Exception {
+    }
+
     protected void postShutDown() throws Exception {
     }
 
+    /**
+     * Returns an action that has become due independently of the queue, such as a flush of buffered work. Called by
+     * the service thread between queued actions.
+     *
+     * @return the action to execute, or null if nothing is due
+     */
+    @Nullable
+    protected E dueAction() {
+        return null;
+    }
+
+    /**
+     * Whether an action may be discarded when the queue is full. Actions that may not, such as those the service
+     * depends on to send everything else, are always queued, waiting for room if they have to.
+     */
+    protected boolean isDroppable(E action) {
+        return true;
+    }
+
+    /**
+     * Write an action that didn't fit in the queue to overflow storage, for the {@link QueueOverflowPolicy#SPILL}
+     * policy. Called on the thread that queued the action.
+     *
+     * @return true if the action was spilled, or false if it can't be, in which case it's discarded
+     */
+    protected boolean spill(E action) {
+        return false;
+    }
+
+    /**
+     * Returns how long until {@link #dueAction()} next has an action to return, so the service thread can wait for
+     * exactly that long when the queue is empty.
+     *
+     * @return the delay in milliseconds, or {@link Long#MAX_VALUE} if no action will become due without something being
+     * queued first
+     */
+    protected long dueDelayMillis() {
+        return Long.MAX_VALUE;
+    }
+
     protected final void queue(E action) {
         checkNotNull(action);
         if (!QUEUE_AVAILABLE_STATES.contains(state())) {
             logger.debug("Dispatcher is not running, dropping action {}", action);
         } else if (isAsync()) {
             logger.debug("Queueing {}", action);
-            queue.add(action);
+            enqueue(action);
+            maxDepth.accumulateAndGet(queue.size(), Math::max);
         } else {
             doExecute(action);
         }
     }
 
+    private void enqueue(E action) {
+        Queued<E> queued = new Queued<>(action);
+        if (queue.offer(queued)) {
+            return;
+        }
+        if (!isDroppable(action)) {
+            put(queued);
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                put(queued);
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(queued)) {
+                    Queued<E> oldest = oldestDroppable();
+                    if (oldest == null) {
+                        // everything queued has to be kept, so the new action is discarded instead
+                        dropped(action);
+                        return;
+                    }
+                    if (queue.remove(oldest)) {
+                        dropped(oldest.action);
+                    }
+                }
+                break;
+            case SPILL:
+                if (!spill(action)) {
+                    dropped(action);
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                dropped(action);
+                break;
+        }
+    }
+
+    private void put(Queued<E> queued) {
+        if (Thread.currentThread() == serviceThread) {
+            // waiting for ourselves to make room would never end, so the action is executed right away instead
+            doExecute(queued.action);
+            return;
+        }
+        try {
+            queue.put(queued);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            dropped(queued.action);
+        }
+    }
+
+    @Nullable
+    private Queued<E> oldestDroppable() {
+        for (Queued<E> queued : queue) {
+            // the stop marker has no action, and is never discarded
+            if (queued.action != null && isDroppable(queued.action)) {
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    private void dropped(@Nullable E action) {
+        droppedCount.incrementAndGet();
+        logger.debug("Dispatcher queue is full, dropping action {}", action);
+    }
+
     protected final void executeSynchronously(E action) {
         checkNotNull(action);
         if (!QUEUE_AVAILABLE_STATES.contains(state())) {
@@ -151,4 +372,18 @@ public abstract class AbstractQueuedExecutionThreadService<E> extends AbstractEx
     protected boolean isAsync() {
         return true;
     }
+
+    /**
+     * An action, and when it was queued.
+     */
+    static final class Queued<E> {
+        @Nullable
+        private final E action;
+        private final long enqueuedNanos;
+
+        Queued(@Nullable E action) {
+            this.action = action;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
 }
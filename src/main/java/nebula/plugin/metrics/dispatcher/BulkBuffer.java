@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Buffers serialized documents per document type, until a batch is due to be sent as a single bulk request.
+ * <p>
+ * A batch is due when it reaches the maximum number of documents, the maximum size, or when its oldest document has
+ * been waiting for longer than the linger time.
+ */
+class BulkBuffer {
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final long lingerMillis;
+    private final Map<String, Integer> maxDocumentsByType = new HashMap<>();
+    private final Map<String, Batch> batches = new LinkedHashMap<>();
+
+    BulkBuffer(int maxDocuments, long maxBytes, long lingerMillis) {
+        checkArgument(maxDocuments > 0, "maxDocuments must be greater than zero");
+        checkArgument(maxBytes > 0, "maxBytes must be greater than zero");
+        checkArgument(lingerMillis >= 0, "lingerMillis must not be negative");
+        this.maxDocuments = maxDocuments;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Use a different maximum number of documents for batches of the given type.
+     */
+    synchronized void setMaxDocuments(String type, int maxDocuments) {
+        checkNotNull(type);
+        checkArgument(maxDocuments > 0, "maxDocuments must be greater than zero");
+        maxDocumentsByType.put(type, maxDocuments);
+    }
+
+    /**
+     * Return the maximum number of documents in a batch of the given type.
+     */
+    synchronized int getMaxDocuments(String type) {
+        checkNotNull(type);
+        Integer maxDocuments = maxDocumentsByType.get(type);
+        return maxDocuments != null ? maxDocuments : this.maxDocuments;
+    }
+
+    /**
+     * Add a document to the batch for its type.
+     *
+     * @return the batch for the type if adding the document made it due, otherwise null
+     */
+    @Nullable
+    synchronized List<String> add(String type, String source, long now) {
+        checkNotNull(type);
+        checkNotNull(source);
+        Batch batch = batches.get(type);
+        if (batch == null) {
+            batch = new Batch(now);
+            batches.put(type, batch);
+        }
+        batch.sources.add(source);
+        // Documents are almost entirely ASCII JSON, so the character count is a close enough estimate of the size
+        batch.bytes += source.length();
+        if (batch.sources.size() >= getMaxDocuments(type) || batch.bytes >= maxBytes) {
+            batches.remove(type);
+            return batch.sources;
+        }
+        return null;
+    }
+
+    /**
+     * Remove and return the batches that have been waiting for longer than the linger time, keyed by type.
+     */
+    synchronized Map<String, List<String>> drainExpired(long now) {
+        if (batches.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> expired = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Batch>> it = batches.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Batch> entry = it.next();
+            if (now - entry.getValue().created >= lingerMillis) {
+                expired.put(entry.getKey(), entry.getValue().sources);
+                it.remove();
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Return how long until the oldest batch has been waiting for longer than the linger time.
+     *
+     * @return the delay in milliseconds, which is zero if a batch has already expired, or {@link Long#MAX_VALUE} if
+     * nothing is buffered
+     */
+    synchronized long millisUntilExpiry(long now) {
+        long delay = Long.MAX_VALUE;
+        for (Batch batch : batches.values()) {
+            delay = Math.min(delay, Math.max(batch.created + lingerMillis - now, 0));
+        }
+        return delay;
+    }
+
+    /**
+     * Remove and return every buffered batch, keyed by type.
+     */
+    synchronized Map<String, List<String>> drainAll() {
+        Map<String, List<String>> all = new LinkedHashMap<>();
+        for (Map.Entry<String, Batch> entry : batches.entrySet()) {
+            all.put(entry.getKey(), entry.getValue().sources);
+        }
+        batches.clear();
+        return all;
+    }
+
+    private static final class Batch {
+        private final long created;
+        private final List<String> sources = new ArrayList<>();
+        private long bytes;
+
+        private Batch(long created) {
+            this.created = created;
+        }
+    }
+}
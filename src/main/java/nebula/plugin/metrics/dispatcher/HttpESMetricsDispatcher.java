@@ -20,6 +20,8 @@ package nebula.plugin.metrics.dispatcher;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import io.searchbox.action.Action;
 import io.searchbox.client.JestClient;
 import io.searchbox.client.JestClientFactory;
@@ -27,11 +29,17 @@ import io.searchbox.client.JestResult;
 import io.searchbox.client.config.HttpClientConfig;
 import io.searchbox.core.Bulk;
 import io.searchbox.core.Index;
+import io.searchbox.core.Update;
 import io.searchbox.indices.IndicesExists;
 import nebula.plugin.metrics.MetricsPluginExtension;
+import org.apache.http.impl.client.HttpClientBuilder;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -40,7 +48,22 @@ import java.util.UUID;
  * @author Danny Thomas
  */
 public class HttpESMetricsDispatcher extends AbstractESMetricsDispatcher {
+    private static final String UPDATE_SCRIPT = "for (def entry : params.set.entrySet()) { ctx._source[entry.getKey()] = entry.getValue(); } "
+            + "for (def entry : params.append.entrySet()) { "
+            + "if (ctx._source[entry.getKey()] == null) { ctx._source[entry.getKey()] = new ArrayList(); } "
+            + "ctx._source[entry.getKey()].addAll(entry.getValue()); }";
+
+    /**
+     * Clients are pooled and shared by dispatchers with the same settings for the life of the daemon, so they're not
+     * shut down with the dispatcher. They're keyed by a hash of the settings, so the credentials aren't held in the
+     * key, and a client that no dispatcher is using is shut down when a dispatcher starts with different settings.
+     */
+    private static final Map<String, SharedClient> CLIENTS = new HashMap<>();
+    private String clientKey;
     private JestClient client;
+    // only used by the service thread, which sends every update
+    private String scriptKey = "source";
+    private boolean updatesRejected;
 
     public HttpESMetricsDispatcher(MetricsPluginExtension extension) {
         super(extension, true);
@@ -48,20 +71,81 @@ public class HttpESMetricsDispatcher extends AbstractESMetricsDispatcher {
 
     @Override
     protected void startUpClient() {
-        JestClientFactory factory = new JestClientFactory();
+        String key = clientKey();
+        synchronized (CLIENTS) {
+            Iterator<Map.Entry<String, SharedClient>> iterator = CLIENTS.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, SharedClient> entry = iterator.next();
+                if (entry.getValue().users == 0 && !entry.getKey().equals(key)) {
+                    // the settings have changed since the client was last used, such as when credentials are rotated
+                    entry.getValue().client.shutdownClient();
+                    iterator.remove();
+                }
+            }
+            SharedClient shared = CLIENTS.get(key);
+            if (shared == null) {
+                shared = new SharedClient(createClient());
+                CLIENTS.put(key, shared);
+            }
+            shared.users++;
+            clientKey = key;
+            client = shared.client;
+        }
+    }
+
+    @Override
+    protected void shutDownClient() {
+        synchronized (CLIENTS) {
+            SharedClient shared = clientKey != null ? CLIENTS.get(clientKey) : null;
+            if (shared != null && shared.client == client) {
+                shared.users--;
+            }
+        }
+    }
+
+    private String clientKey() {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, getURI(extension));
+        putString(hasher, extension.getEsBasicAuthUsername());
+        putString(hasher, extension.getEsBasicAuthPassword());
+        hasher.putInt(extension.getHttpConnectTimeoutMillis())
+                .putInt(extension.getHttpReadTimeoutMillis())
+                .putInt(extension.getHttpMaxConnections());
+        putString(hasher, String.valueOf(extension.getCompression()));
+        hasher.putLong(extension.getCompressionThreshold());
+        return hasher.hash().toString();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        // the length is hashed first, so adjacent strings can't run together into the same key
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+        }
+    }
+
+    private JestClient createClient() {
+        final RequestCompression requestCompression = new RequestCompression(extension);
+        JestClientFactory factory = new JestClientFactory() {
+            @Override
+            protected HttpClientBuilder configureHttpClient(HttpClientBuilder builder) {
+                // Jest only exposes string sources, so bodies are compressed on the way out of the client
+                return builder.addInterceptorFirst(requestCompression.interceptor());
+            }
+        };
         HttpClientConfig.Builder config = new HttpClientConfig
                 .Builder(getURI(this.extension))
-                .multiThreaded(false);
+                .multiThreaded(true)
+                .maxTotalConnection(extension.getHttpMaxConnections())
+                .defaultMaxTotalConnectionPerRoute(extension.getHttpMaxConnections())
+                .connTimeout(extension.getHttpConnectTimeoutMillis())
+                .readTimeout(extension.getHttpReadTimeoutMillis());
         if (!Strings.isNullOrEmpty(extension.getEsBasicAuthUsername())) {
             config.defaultCredentials(extension.getEsBasicAuthUsername(), extension.getEsBasicAuthPassword());
         }
         factory.setHttpClientConfig(config.build());
-        client = factory.getObject();
-    }
-
-    @Override
-    protected void shutDownClient() {
-        client.shutdownClient();
+        return factory.getObject();
     }
 
     @Override
@@ -79,6 +163,49 @@ public class HttpESMetricsDispatcher extends AbstractESMetricsDispatcher {
         return builder.build();
     }
 
+    @Override
+    protected boolean update(String indexName, String type, String source, String id) {
+        if (updatesRejected) {
+            return false;
+        }
+        JestResult result = send(buildUpdate(indexName, type, source, id, scriptKey));
+        if (!result.isSucceeded() && isRejected(result) && scriptKey.equals("source")) {
+            // Elasticsearch 5.0 to 5.5 only accept the script under "inline", which later versions deprecate
+            JestResult inlineResult = send(buildUpdate(indexName, type, source, id, "inline"));
+            if (inlineResult.isSucceeded()) {
+                scriptKey = "inline";
+            }
+            result = inlineResult;
+        }
+        if (result.isSucceeded()) {
+            return true;
+        }
+        if (isRejected(result)) {
+            if (result.getResponseCode() != 404) {
+                // the cluster can't run the script at all, such as 2.x clusters that don't have painless
+                updatesRejected = true;
+            }
+            logger.info("Partial update of build {} was rejected with {}, indexing the full document instead", id, result.getErrorMessage());
+            return false;
+        }
+        throw new RuntimeException("Jest request failed with " + result.getErrorMessage());
+    }
+
+    private Update buildUpdate(String indexName, String type, String source, String id, String scriptKey) {
+        // the changes are passed to the script as its parameters, so set properties replace the current values and
+        // appended elements are added to the end of the lists already indexed
+        String payload = "{\"script\": {\"lang\": \"painless\", \"" + scriptKey + "\": \"" + UPDATE_SCRIPT + "\", \"params\": " + source + "}}";
+        return new Update.Builder(payload).index(indexName).type(type).id(id).build();
+    }
+
+    /**
+     * Returns true if the request was refused by the cluster, rather than failing in a way that may succeed if retried.
+     */
+    private static boolean isRejected(JestResult result) {
+        int code = result.getResponseCode();
+        return code >= 400 && code < 500 && code != 408 && code != 429;
+    }
+
     @Override
     protected void bulkIndex(String indexName, String type, Collection<String> sources) {
         Bulk.Builder builder = new Bulk.Builder();
@@ -98,14 +225,27 @@ public class HttpESMetricsDispatcher extends AbstractESMetricsDispatcher {
     }
 
     private <T extends JestResult> T execute(Action<T> clientRequest, boolean allowNotFound) {
+        T result = send(clientRequest);
+        if (!result.isSucceeded() && (!allowNotFound || result.getResponseCode() != 404)) {
+            throw new RuntimeException("Jest request failed with " + result.getErrorMessage());
+        }
+        return result;
+    }
+
+    private <T extends JestResult> T send(Action<T> clientRequest) {
         try {
-            T result = client.execute(clientRequest);
-            if (!result.isSucceeded() && (!allowNotFound || result.getResponseCode() != 404)) {
-                throw new RuntimeException("Jest request failed with " + result.getErrorMessage());
-            }
-            return result;
+            return client.execute(clientRequest);
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
     }
+
+    private static final class SharedClient {
+        private final JestClient client;
+        private int users;
+
+        private SharedClient(JestClient client) {
+            this.client = client;
+        }
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link org.apache.http.HttpEntity} that serializes its content straight into the request body with a
+ * {@link JsonGenerator}, so the JSON document is never held in memory as a whole.
+ * <p>
+ * The content is serialized again each time the entity is written, which makes the entity repeatable.
+ */
+class JsonEntity extends AbstractHttpEntity {
+    private final ObjectMapper mapper;
+    private final JsonContent content;
+
+    JsonEntity(ObjectMapper mapper, JsonContent content) {
+        this.mapper = checkNotNull(mapper);
+        this.content = checkNotNull(content);
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        // only used by callers that want to read the entity back, so buffering is acceptable here
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        checkNotNull(out);
+        JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        // the connection owns the stream, so it must stay open once the document has been written
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        content.writeTo(generator);
+        generator.close();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Writes the content of a {@link JsonEntity}.
+     */
+    interface JsonContent {
+        void writeTo(JsonGenerator generator) throws IOException;
+    }
+}
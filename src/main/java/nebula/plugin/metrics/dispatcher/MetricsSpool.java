@@ -0,0 +1,239 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher;
+
+import com.google.common.base.Optional;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An append-only file of serialized documents, written in place of sending them when sending would hold up the end of
+ * the build, and drained by a later build.
+ * <p>
+ * Each record is written as its length followed by its fields, so a record left incomplete by a process that died
+ * while appending is detected and skipped. Builds running in other processes may share the directory: writers and
+ * drains are serialized by a lock file, and a drain claims the spool by renaming it, so each record is drained once.
+ */
+final class MetricsSpool {
+    private static final String SPOOL_FILE = "metrics.spool";
+    private static final String LOCK_FILE = "metrics.spool.lock";
+    private static final String CLAIMED_SUFFIX = ".draining";
+    // a claimed file this old was left behind by a build that failed while draining it
+    private static final long ABANDONED_CLAIM_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // file locks are held per process, so spools sharing a directory in this process are serialized here
+    private static final Object PROCESS_LOCK = new Object();
+
+    private final Path directory;
+    private final long maxBytes;
+
+    MetricsSpool(File directory, long maxBytes) {
+        checkNotNull(directory);
+        checkArgument(maxBytes > 0, "maxBytes must be greater than zero");
+        this.directory = directory.toPath();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Append records to the spool.
+     *
+     * @return false if the records were discarded because the spool has reached its maximum size
+     */
+    boolean append(Collection<Record> records) throws IOException {
+        checkNotNull(records);
+        if (records.isEmpty()) {
+            return true;
+        }
+        ByteBuffer buffer = encode(records);
+        synchronized (PROCESS_LOCK) {
+            Files.createDirectories(directory);
+            try (FileChannel lockChannel = openLockFile(); FileLock ignored = lockChannel.lock()) {
+                try (FileChannel channel = FileChannel.open(directory.resolve(SPOOL_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    if (channel.size() + buffer.remaining() > maxBytes) {
+                        return false;
+                    }
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove and return every record in the spool, including records abandoned by an earlier drain that didn't
+     * complete.
+     */
+    List<Record> drain() throws IOException {
+        List<Path> claimed = new ArrayList<>();
+        synchronized (PROCESS_LOCK) {
+            if (!Files.isDirectory(directory)) {
+                return new ArrayList<>();
+            }
+            try (FileChannel lockChannel = openLockFile(); FileLock ignored = lockChannel.lock()) {
+                claim(directory.resolve(SPOOL_FILE), claimed);
+                long abandoned = System.currentTimeMillis() - ABANDONED_CLAIM_MILLIS;
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + CLAIMED_SUFFIX)) {
+                    for (Path path : stream) {
+                        if (!claimed.contains(path) && Files.getLastModifiedTime(path).toMillis() < abandoned) {
+                            claim(path, claimed);
+                        }
+                    }
+                }
+            }
+        }
+
+        // claimed files are ours alone, so they're read without holding the lock
+        List<Record> records = new ArrayList<>();
+        for (Path path : claimed) {
+            decode(ByteBuffer.wrap(Files.readAllBytes(path)), records);
+            Files.delete(path);
+        }
+        return records;
+    }
+
+    private FileChannel openLockFile() throws IOException {
+        return FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private void claim(Path path, List<Path> claimed) throws IOException {
+        Path target = directory.resolve(UUID.randomUUID() + CLAIMED_SUFFIX);
+        try {
+            Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        // renaming doesn't change the modification time, which marks when the claim was made
+        Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+        claimed.add(target);
+    }
+
+    private static ByteBuffer encode(Collection<Record> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Record record : records) {
+            byte[][] fields = {
+                    utf8(record.getIndexName()),
+                    utf8(record.getType()),
+                    utf8(record.getBuildId().or("")),
+                    utf8(record.getSource())
+            };
+            int length = 0;
+            for (byte[] field : fields) {
+                length += 4 + field.length;
+            }
+            out.writeInt(length);
+            for (byte[] field : fields) {
+                out.writeInt(field.length);
+                out.write(field);
+            }
+        }
+        out.flush();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private static void decode(ByteBuffer buffer, List<Record> records) {
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                // the last record was only partially written
+                return;
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            buffer.position(buffer.position() + length);
+            try {
+                String indexName = string(record);
+                String type = string(record);
+                String buildId = string(record);
+                String source = string(record);
+                records.add(new Record(indexName, type, buildId.isEmpty() ? Optional.<String>absent() : Optional.of(buildId), source));
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                // skip a corrupt record, the length prefix still tells us where the next one starts
+            }
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        checkArgument(length >= 0 && length <= buffer.remaining(), "Invalid field length %s", length);
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * A serialized document and where it is to be sent.
+     */
+    static final class Record {
+        private final String indexName;
+        private final String type;
+        private final Optional<String> buildId;
+        private final String source;
+
+        Record(String indexName, String type, Optional<String> buildId, String source) {
+            this.indexName = checkNotNull(indexName);
+            this.type = checkNotNull(type);
+            this.buildId = checkNotNull(buildId);
+            this.source = checkNotNull(source);
+        }
+
+        String getIndexName() {
+            return indexName;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        Optional<String> getBuildId() {
+            return buildId;
+        }
+
+        String getSource() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher;
+
+/**
+ * Statistics for the actions queued by an {@link AbstractQueuedExecutionThreadService}.
+ */
+public final class QueueStatistics {
+    private final int depth;
+    private final int maxDepth;
+    private final long executed;
+    private final long meanTimeInQueueMillis;
+    private final long maxTimeInQueueMillis;
+    private final long dropped;
+
+    public QueueStatistics(int depth, int maxDepth, long executed, long meanTimeInQueueMillis, long maxTimeInQueueMillis, long dropped) {
+        this.depth = depth;
+        this.maxDepth = maxDepth;
+        this.executed = executed;
+        this.meanTimeInQueueMillis = meanTimeInQueueMillis;
+        this.maxTimeInQueueMillis = maxTimeInQueueMillis;
+        this.dropped = dropped;
+    }
+
+    /**
+     * The number of actions currently waiting in the queue.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * The largest number of actions that have been waiting in the queue at once.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * The number of queued actions that have been executed.
+     */
+    public long getExecuted() {
+        return executed;
+    }
+
+    /**
+     * The mean time executed actions waited in the queue.
+     */
+    public long getMeanTimeInQueueMillis() {
+        return meanTimeInQueueMillis;
+    }
+
+    /**
+     * The longest time an executed action waited in the queue.
+     */
+    public long getMaxTimeInQueueMillis() {
+        return maxTimeInQueueMillis;
+    }
+
+    /**
+     * The number of actions discarded because the queue was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        return "QueueStatistics{depth=" + depth + ", maxDepth=" + maxDepth + ", executed=" + executed
+                + ", meanTimeInQueueMillis=" + meanTimeInQueueMillis + ", maxTimeInQueueMillis=" + maxTimeInQueueMillis + ", dropped=" + dropped + "}";
+    }
+}
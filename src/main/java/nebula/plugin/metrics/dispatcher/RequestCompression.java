@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher;
+
+import nebula.plugin.metrics.MetricsPluginExtension;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.protocol.HttpContext;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compresses request bodies according to the compression settings of a {@link MetricsPluginExtension}.
+ */
+final class RequestCompression {
+    private final MetricsPluginExtension.Compression compression;
+    private final long threshold;
+
+    RequestCompression(MetricsPluginExtension extension) {
+        checkNotNull(extension);
+        this.compression = extension.getCompression();
+        this.threshold = extension.getCompressionThreshold();
+    }
+
+    /**
+     * Return the entity to send in place of the given entity.
+     */
+    HttpEntity compress(HttpEntity entity) {
+        checkNotNull(entity);
+        if (compression == MetricsPluginExtension.Compression.NONE || entity.getContentEncoding() != null) {
+            return entity;
+        }
+        long length = entity.getContentLength();
+        if (length >= 0 && length < threshold) {
+            return entity;
+        }
+        return new GzipCompressingEntity(entity);
+    }
+
+    /**
+     * Return an interceptor that compresses the body of outgoing requests, for clients that don't expose the entity.
+     * The interceptor must run before the standard protocol interceptors, so the content headers are derived from the
+     * compressed entity.
+     */
+    HttpRequestInterceptor interceptor() {
+        return new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) {
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+                    HttpEntity entity = enclosingRequest.getEntity();
+                    if (entity != null) {
+                        enclosingRequest.setEntity(compress(entity));
+                    }
+                }
+            }
+        };
+    }
+}
@@ -17,6 +17,7 @@
 
 package nebula.plugin.metrics.dispatcher;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
@@ -24,24 +25,31 @@ import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import nebula.plugin.metrics.MetricsPluginExtension;
+import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import org.apache.http.client.fluent.Executor;
 import org.apache.http.client.fluent.Request;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 public class RestMetricsDispatcher extends AbstractMetricsDispatcher {
+    protected static final String PATCH_TYPE = "patch";
+    private final RequestCompression requestCompression;
 
     public RestMetricsDispatcher(MetricsPluginExtension extension) {
         super(extension, true);
         buildId = Optional.of(UUID.randomUUID().toString());
+        requestCompression = new RequestCompression(extension);
     }
 
     @Override
@@ -49,6 +57,11 @@ public class RestMetricsDispatcher extends AbstractMetricsDispatcher {
         return extension.getRestBuildEventName();
     }
 
+    @Override
+    protected String getSpoolDestination() {
+        return super.getSpoolDestination() + '\n' + extension.getRestUri();
+    }
+
     @Override
     protected String index(String indexName, String type, String source, Optional<String> id) {
         checkNotNull(indexName);
@@ -56,21 +69,61 @@ public class RestMetricsDispatcher extends AbstractMetricsDispatcher {
         checkNotNull(source);
         checkNotNull(id);
 
-        // id is ignored because the REST dispatcher generates one on startup.
-        String payload = createPayloadJson(indexName, type, source, buildId.get());
+        // the REST dispatcher generates an id on startup, but documents spooled by earlier builds carry their own
+        String buildId = id.or(this.buildId).get();
+        String payload = createPayloadJson(indexName, type, source, buildId);
         postPayload(payload);
-        return buildId.get();
+        return buildId;
+    }
+
+    @Override
+    protected String indexDocument(final String indexName, final String type, final Object document, Optional<String> id) {
+        checkNotNull(indexName);
+        checkNotNull(type);
+        checkNotNull(document);
+        checkNotNull(id);
+
+        final String buildId = id.or(this.buildId).get();
+        postPayload(new JsonEntity(mapper, generator -> writePayload(generator, indexName, type, buildId, documentGenerator -> {
+            if (extension.isRestPayloadAsJsonObject()) {
+                documentGenerator.writeObject(document);
+            } else {
+                documentGenerator.writeString(mapper.writeValueAsString(document));
+            }
+        })));
+        return buildId;
+    }
+
+    @Override
+    protected boolean update(String indexName, String type, String source, String id) {
+        checkNotNull(indexName);
+        checkNotNull(type);
+        checkNotNull(source);
+        checkNotNull(id);
+
+        // the changes are posted under the 'patch' key, for the receiving end to merge into the build: properties under
+        // 'set' replace the current values, and elements under 'append' are added to the end of the lists already sent
+        postPayload(createPayloadJson(indexName, PATCH_TYPE, source, buildId.get()));
+        return true;
     }
 
     @Override
     protected void bulkIndex(String indexName, String type, Collection<String> sources) {
+        bulkIndex(indexName, type, buildId, sources);
+    }
+
+    @Override
+    protected void bulkIndex(String indexName, String type, Optional<String> buildId, Collection<String> sources) {
         checkNotNull(indexName);
         checkNotNull(type);
+        checkNotNull(buildId);
+        checkNotNull(sources);
         checkState(sources.size() > 0);
 
+        String payloadBuildId = buildId.or(this.buildId).get();
         List<String> payloads = Lists.newArrayList();
         for (String source : sources) {
-            payloads.add(createPayloadJson(indexName, type, source, buildId.get()));
+            payloads.add(createPayloadJson(indexName, type, source, payloadBuildId));
         }
 
         postPayload(joinMultiplePayloads(payloads));
@@ -78,18 +131,51 @@ public class RestMetricsDispatcher extends AbstractMetricsDispatcher {
 
     protected void postPayload(String payload) {
         checkNotNull(payload);
+        postPayload(new StringEntity(payload, ContentType.APPLICATION_JSON));
+    }
+
+    protected void postPayload(HttpEntity entity) {
+        checkNotNull(entity);
 
         try {
             Request postReq = Request.Post(extension.getRestUri());
-            postReq.bodyString(payload , ContentType.APPLICATION_JSON);
+            postReq.body(compress(entity));
             addHeaders(postReq);
-            postReq.execute();
+            // the response has to be consumed for the connection to be returned to the pool
+            httpExecutor().execute(postReq).discardContent();
         } catch (IOException e) {
             throw new RuntimeException("Unable to POST to " + extension.getRestUri(), e);
         }
     }
 
-    private String createPayloadJson(String indexName, String type, String payload, String buildId) {
+    /**
+     * Return the executor for requests, which sends them with the HTTP client shared by dispatchers with the same
+     * connection settings.
+     */
+    protected Executor httpExecutor() {
+        return SharedHttpClients.executor(extension);
+    }
+
+    /**
+     * Compress a request body according to the compression settings of the extension.
+     */
+    protected HttpEntity compress(HttpEntity entity) {
+        return requestCompression.compress(entity);
+    }
+
+    private String createPayloadJson(String indexName, String type, final String payload, String buildId) {
+        if (extension.isRestPayloadAsJsonObject()) {
+            try {
+                StringWriter writer = new StringWriter();
+                JsonGenerator generator = mapper.getFactory().createGenerator(writer);
+                writePayload(generator, indexName, type, buildId, documentGenerator -> documentGenerator.writeRawValue(payload));
+                generator.close();
+                return writer.toString();
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to parse to payload", e);
+            }
+        }
+
         Map<String, String> payloadMap = Maps.newHashMap();
         payloadMap.put("buildId", buildId);
         payloadMap.put(type, payload);
@@ -101,6 +187,20 @@ public class RestMetricsDispatcher extends AbstractMetricsDispatcher {
         }
     }
 
+    /**
+     * Write a payload with the same shape as {@link RestPayload}, with the document written by the given content.
+     */
+    private void writePayload(JsonGenerator generator, String indexName, String type, String buildId, JsonEntity.JsonContent document) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("eventName", indexName);
+        generator.writeObjectFieldStart("payload");
+        generator.writeStringField("buildId", buildId);
+        generator.writeFieldName(type);
+        document.writeTo(generator);
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
     private String joinMultiplePayloads(Collection<String> payloads) {
         Joiner joiner = Joiner.on(", ").skipNulls();
         return String.format("[ %s ]", joiner.join(payloads));
@@ -109,9 +209,9 @@ public class RestMetricsDispatcher extends AbstractMetricsDispatcher {
     @Override
     public Optional<String> receipt() {
         if (buildId.isPresent()) {
-            return Optional.of(String.format("Metrics have been posted to %s (buildId: %s)", extension.getRestUri(), buildId.get()));
+            return withDroppedCount(Optional.of(String.format("Metrics have been posted to %s (buildId: %s)", extension.getRestUri(), buildId.get())));
         } else {
-            return Optional.absent();
+            return withDroppedCount(Optional.<String>absent());
         }
     }
 
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher;
+
+import nebula.plugin.metrics.MetricsPluginExtension;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.fluent.Executor;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Pooled, keep-alive HTTP clients shared by every dispatcher with the same connection settings.
+ * <p>
+ * The clients are held for the life of the plugin class loader, which Gradle keeps for the life of the daemon, so
+ * builds in a warm daemon reuse open connections rather than connecting for every upload. Sharing a client also shares
+ * its SSL context, and with it the cache of TLS sessions that can be resumed.
+ */
+final class SharedHttpClients {
+    private static final long IDLE_CONNECTION_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+    private static final ConcurrentMap<List<Object>, CloseableHttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private SharedHttpClients() {
+    }
+
+    /**
+     * Return the shared client for the connection settings of the extension.
+     */
+    static CloseableHttpClient client(MetricsPluginExtension extension) {
+        checkNotNull(extension);
+        final int connectTimeout = extension.getHttpConnectTimeoutMillis();
+        final int readTimeout = extension.getHttpReadTimeoutMillis();
+        final int maxConnections = extension.getHttpMaxConnections();
+        List<Object> key = Arrays.<Object>asList(connectTimeout, readTimeout, maxConnections);
+        return CLIENTS.computeIfAbsent(key, k -> create(connectTimeout, readTimeout, maxConnections));
+    }
+
+    /**
+     * Return a fluent executor for the shared client for the connection settings of the extension.
+     */
+    static Executor executor(MetricsPluginExtension extension) {
+        return Executor.newInstance(client(extension));
+    }
+
+    private static CloseableHttpClient create(int connectTimeout, int readTimeout, int maxConnections) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        // connections sit idle between builds, so check that they're still usable before sending on them
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+        return HttpClientBuilder.create()
+                .useSystemProperties()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictIdleConnections(IDLE_CONNECTION_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+    }
+}
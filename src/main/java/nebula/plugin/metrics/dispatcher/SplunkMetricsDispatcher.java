@@ -29,7 +29,7 @@ import java.util.Map;
 import java.util.UUID;
 import java.io.IOException;
 
-import org.apache.http.entity.ContentType;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.fluent.Request;
 import org.apache.http.StatusLine;
 
@@ -41,6 +41,7 @@ public class SplunkMetricsDispatcher extends RestMetricsDispatcher {
 
     protected static final String HTTP_COLLECTOR = "HTTP_COLLECTOR";
     protected static final String FORWARDER = "FORWARDER";
+    private static final String BUILD_INFO_KEY = "buildInfo";
     
     private Boolean submit = false;
     private String error = null;
@@ -68,6 +69,11 @@ public class SplunkMetricsDispatcher extends RestMetricsDispatcher {
     }
 
 
+    @Override
+    protected String getSpoolDestination() {
+        return super.getSpoolDestination() + '\n' + extension.getSplunkUri() + '\n' + extension.getSplunkInputType();
+    }
+
     @Override
     protected String index(String indexName, String type, String source, Optional<String> id){
         checkNotNull(indexName);
@@ -75,23 +81,89 @@ public class SplunkMetricsDispatcher extends RestMetricsDispatcher {
         checkNotNull(source);
         checkNotNull(id);
 
-        String requestBody = getSplunkRequestBody(source, buildId.get());
+        String buildId = id.or(this.buildId).get();
+        String requestBody = getSplunkRequestBody(BUILD_INFO_KEY, source, buildId);
 
         if (BUILD_TYPE.equals(type) && submit && requestBody != null) {
             postPayload(requestBody);
         }
 
-    	return buildId.get();
+    	return buildId;
+    }
+
+    @Override
+    protected String indexSpooled(String indexName, String type, String source, String id) {
+        // only the final build document is spooled, so it's sent regardless of the events of the current build
+        String requestBody = getSplunkRequestBody(BUILD_INFO_KEY, source, id);
+        if (BUILD_TYPE.equals(type) && requestBody != null) {
+            postPayload(requestBody);
+        }
+        return id;
     }
 
     @Override
-    protected void postPayload(String requestBody) {
+    protected String indexDocument(String indexName, String type, final Object document, Optional<String> id) {
+        checkNotNull(indexName);
+        checkNotNull(type);
+        checkNotNull(document);
+        checkNotNull(id);
+
+        if (BUILD_TYPE.equals(type) && submit && isKnownInputType()) {
+            final String buildId = id.or(this.buildId).get();
+            postPayload(new JsonEntity(mapper, generator -> {
+                boolean httpCollector = HTTP_COLLECTOR.equals(extension.getSplunkInputType());
+                if (httpCollector) {
+                    generator.writeStartObject();
+                    generator.writeFieldName("event");
+                }
+                generator.writeStartObject();
+                generator.writeStringField("buildId", buildId);
+                generator.writeObjectField(BUILD_INFO_KEY, document);
+                generator.writeEndObject();
+                if (httpCollector) {
+                    generator.writeEndObject();
+                }
+            }));
+        }
+
+        return id.or(buildId).get();
+    }
+
+    @Override
+    protected boolean update(String indexName, String type, String source, String id) {
+        // Splunk events can't be patched, so the full build is always sent
+        return false;
+    }
+
+    @Override
+    protected void bulkIndex(String indexName, String type, Optional<String> buildId, Collection<String> sources) {
+        checkNotNull(indexName);
+        checkNotNull(type);
+        checkState(sources.size() > 0);
+
+        String eventBuildId = buildId.or(this.buildId).get();
+        // Splunk accepts several events in a single request body, so the batch is sent as one post
+        StringBuilder requestBody = new StringBuilder();
+        for (String source : sources) {
+            String body = getSplunkRequestBody(type, source, eventBuildId);
+            if (body != null) {
+                requestBody.append(body).append('\n');
+            }
+        }
+
+        if (requestBody.length() > 0) {
+            postPayload(requestBody.toString());
+        }
+    }
+
+    @Override
+    protected void postPayload(HttpEntity requestBody) {
         try {
 
             Request postReq = Request.Post(extension.getSplunkUri());
-            postReq.bodyString(requestBody , ContentType.APPLICATION_JSON);
+            postReq.body(compress(requestBody));
             addHeaders(postReq);
-            StatusLine status = postReq.execute().returnResponse().getStatusLine();
+            StatusLine status = httpExecutor().execute(postReq).returnResponse().getStatusLine();
 
             if (SC_OK != status.getStatusCode()) {
                 error = String.format("%s (status code: %s)", 
@@ -105,25 +177,29 @@ public class SplunkMetricsDispatcher extends RestMetricsDispatcher {
     @Override
     public Optional<String> receipt() {
         if (error == null) {
-            return Optional.of(String.format("Metrics have been posted to %s (buildId: %s)", 
-                extension.getSplunkUri(), buildId.get()));
+            return withDroppedCount(Optional.of(String.format("Metrics have been posted to %s (buildId: %s)",
+                extension.getSplunkUri(), buildId.get())));
         } else {
-            return Optional.of(String.format("Could not post metrics : %s ",error));
+            return withDroppedCount(Optional.of(String.format("Could not post metrics : %s ",error)));
         }
     }
 
-    private String getSplunkRequestBody(String buildInfo, String buildId) {
+    private boolean isKnownInputType() {
+        return HTTP_COLLECTOR.equals(extension.getSplunkInputType()) || FORWARDER.equals(extension.getSplunkInputType());
+    }
+
+    private String getSplunkRequestBody(String key, String source, String buildId) {
         
         String body = null;
 
         switch(extension.getSplunkInputType()){
             case HTTP_COLLECTOR: 
-                body = String.format("{\"event\": {\"buildId\": \"%s\", \"buildInfo\": %s}}",
-                    buildId, buildInfo);
+                body = String.format("{\"event\": {\"buildId\": \"%s\", \"%s\": %s}}",
+                    buildId, key, source);
                 break;
             case FORWARDER:
-                body = String.format("{\"buildId\": \"%s\", \"buildInfo\": %s}",
-                    buildId, buildInfo);
+                body = String.format("{\"buildId\": \"%s\", \"%s\": %s}",
+                    buildId, key, source);
                 break;
         }
         return body;
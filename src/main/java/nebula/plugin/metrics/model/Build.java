@@ -23,9 +23,13 @@ import com.google.common.collect.ImmutableMap;
 import org.joda.time.DateTime;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -46,6 +50,11 @@ public class Build {
     private Result result = Result.unknown();
     private long startTime;
     private long elapsedTime;
+    private int taskCount;
+    private long tasksElapsedTime;
+    private int testCount;
+    private long testElapsedTime;
+    private final Set<String> changedProperties = new LinkedHashSet<>();
 
     public Project getProject() {
         return project;
@@ -53,6 +62,7 @@ public class Build {
 
     public void setProject(Project project) {
         this.project = checkNotNull(project);
+        changed("project");
     }
 
     public List<Event> getEvents() {
@@ -61,6 +71,7 @@ public class Build {
 
     public void addEvent(Event event) {
         events.add(checkNotNull(event));
+        changed("events", "eventsCount", "eventsElapsedTime");
     }
 
     public int getEventsCount() {
@@ -81,18 +92,26 @@ public class Build {
 
     public void addTask(Task task) {
         tasks.add(checkNotNull(task));
+        changed("tasks");
+        countTask(task);
+    }
+
+    /**
+     * Include a task in the aggregate task count and elapsed time, without retaining the task itself.
+     */
+    public void countTask(Task task) {
+        checkNotNull(task);
+        taskCount++;
+        tasksElapsedTime += task.getElapsedTime();
+        changed("taskCount", "tasksElapsedTime");
     }
 
     public int getTaskCount() {
-        return tasks.size();
+        return taskCount;
     }
 
     public long getTasksElapsedTime() {
-        long elapsedTime = 0;
-        for (Task task : tasks) {
-            elapsedTime += task.getElapsedTime();
-        }
-        return elapsedTime;
+        return tasksElapsedTime;
     }
 
     public List<Test> getTests() {
@@ -106,24 +125,33 @@ public class Build {
 
     public void addTest(Test test) {
         tests.add(checkNotNull(test));
+        changed("tests");
+        countTest(test);
+    }
+
+    /**
+     * Include a test in the aggregate test count and elapsed time, without retaining the test itself.
+     */
+    public void countTest(Test test) {
+        checkNotNull(test);
+        testCount++;
+        testElapsedTime += test.getElapsedTime();
+        changed("testCount", "testElapsedTime");
     }
 
     public void addBuildReport(String reportName, Object report) {
         checkNotNull(reportName);
         checkNotNull(report);
         buildReports.put(reportName, report);
+        changed(reportName);
     }
 
     public int getTestCount() {
-        return tests.size();
+        return testCount;
     }
 
     public long getTestElapsedTime() {
-        long elapsedTime = 0;
-        for (Test test : tests) {
-            elapsedTime += test.getElapsedTime();
-        }
-        return elapsedTime;
+        return testElapsedTime;
     }
 
     public Info getInfo() {
@@ -132,6 +160,7 @@ public class Build {
 
     public void setInfo(Info info) {
         this.info = checkNotNull(info);
+        changed("info");
     }
 
     public Result getResult() {
@@ -140,10 +169,12 @@ public class Build {
 
     public void setResult(Result result) {
         this.result = checkNotNull(result);
+        changed("result");
     }
 
     public void setStartTime(long startTime) {
         this.startTime = startTime;
+        changed("startTime", "finishedTime");
     }
 
     public DateTime getStartTime() {
@@ -156,6 +187,7 @@ public class Build {
 
     public void setElapsedTime(long elapsedTime) {
         this.elapsedTime = elapsedTime;
+        changed("elapsedTime", "finishedTime");
     }
 
     public Long getElapsedTime() {
@@ -168,6 +200,57 @@ public class Build {
 
     public void setBuildId(String buildId) {
         this.buildId = buildId;
+        changed("buildId");
     }
 
+    /**
+     * Returns a copy of the build that later changes to this build don't affect, so it can be serialized without
+     * holding the lock that guards this build. The lists are copied, but the elements are shared.
+     */
+    public Build snapshot() {
+        Build snapshot = new Build();
+        snapshot.buildId = buildId;
+        snapshot.project = project;
+        snapshot.events.addAll(events);
+        snapshot.tasks.addAll(tasks);
+        snapshot.tests.addAll(tests);
+        snapshot.buildReports.putAll(buildReports);
+        snapshot.info = info;
+        snapshot.result = result;
+        snapshot.startTime = startTime;
+        snapshot.elapsedTime = elapsedTime;
+        snapshot.taskCount = taskCount;
+        snapshot.tasksElapsedTime = tasksElapsedTime;
+        snapshot.testCount = testCount;
+        snapshot.testElapsedTime = testElapsedTime;
+        return snapshot;
+    }
+
+    /**
+     * Returns the names of the properties that have changed since the last call, as they appear in the serialized
+     * document, and resets the changes. Used to send partial updates of a build document that has already been indexed.
+     */
+    public Set<String> drainChanges() {
+        synchronized (changedProperties) {
+            Set<String> properties = new LinkedHashSet<>(changedProperties);
+            changedProperties.clear();
+            return properties;
+        }
+    }
+
+    /**
+     * Mark properties as changed again, when the changes returned by {@link #drainChanges()} couldn't be sent.
+     */
+    public void restoreChanges(Collection<String> properties) {
+        checkNotNull(properties);
+        synchronized (changedProperties) {
+            changedProperties.addAll(properties);
+        }
+    }
+
+    private void changed(String... properties) {
+        synchronized (changedProperties) {
+            Collections.addAll(changedProperties, properties);
+        }
+    }
 }
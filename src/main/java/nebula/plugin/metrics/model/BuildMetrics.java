@@ -15,26 +15,35 @@
  */
 package nebula.plugin.metrics.model;
 
-import com.google.common.collect.Maps;
 import org.gradle.StartParameter;
 import org.gradle.util.CollectionUtils;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class BuildMetrics {
 
     private static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy/MM/dd - HH:mm:ss");
-
-    private final Map<String, ProjectMetrics> projects = new LinkedHashMap<String, ProjectMetrics>();
-    private final Map<String, ContinuousOperation> dependencySets = new LinkedHashMap<String, ContinuousOperation>();
-    private final Map<String, FragmentedOperation> transforms = Maps.newLinkedHashMap();
+    // the reverse of Operation.slowestFirst(), because TopN keeps the largest elements
+    private static final Comparator<ContinuousOperation> FASTEST_FIRST = Comparator.comparingLong(ContinuousOperation::getElapsedTime)
+            .thenComparing(ContinuousOperation::getDescription, Comparator.reverseOrder());
+
+    // populated from whichever worker thread Gradle notifies listeners on, and always read sorted
+    private final ConcurrentMap<String, ProjectMetrics> projects = new ConcurrentHashMap<String, ProjectMetrics>();
+    private final ConcurrentMap<String, ContinuousOperation> dependencySets = new ConcurrentHashMap<String, ContinuousOperation>();
+    private final ConcurrentMap<String, FragmentedOperation> transforms = new ConcurrentHashMap<String, FragmentedOperation>();
+    private final TaskTimings taskTimings = new TaskTimings();
     private long profilingStarted;
     private long buildStarted;
     private long settingsEvaluated;
@@ -89,8 +98,7 @@ public class BuildMetrics {
     public ProjectMetrics getProjectProfile(String projectPath) {
         ProjectMetrics result = projects.get(projectPath);
         if (result == null) {
-            result = new ProjectMetrics(projectPath);
-            projects.put(projectPath, result);
+            result = projects.computeIfAbsent(projectPath, path -> new ProjectMetrics(path, taskTimings));
         }
         return result;
     }
@@ -100,7 +108,40 @@ public class BuildMetrics {
      * @return list
      */
     public List<ProjectMetrics> getProjects() {
-        return CollectionUtils.sort(projects.values(), Operation.slowestFirst());
+        // the elapsed time of every project is summed in one pass, rather than once per comparison
+        final Map<String, Long> elapsedTimes = new HashMap<>();
+        for (Map.Entry<String, int[]> entry : taskTimings.getTaskIdsByProject().entrySet()) {
+            long elapsed = 0;
+            for (int id : entry.getValue()) {
+                elapsed += taskTimings.getElapsedTime(id);
+            }
+            elapsedTimes.put(entry.getKey(), elapsed);
+        }
+        List<ProjectMetrics> result = new ArrayList<>(projects.values());
+        result.sort((a, b) -> {
+            int byElapsedTime = Long.compare(elapsedTimes.getOrDefault(b.getPath(), 0L), elapsedTimes.getOrDefault(a.getPath(), 0L));
+            return byElapsedTime != 0 ? byElapsedTime : a.getPath().compareTo(b.getPath());
+        });
+        return result;
+    }
+
+    /**
+     * Get the profiling containers for all projects, in no particular order
+     */
+    public Collection<ProjectMetrics> getProjectProfiles() {
+        return Collections.unmodifiableCollection(projects.values());
+    }
+
+    /**
+     * Get the slowest project configurations, slowest first
+     * @param limit the maximum number of configurations to return
+     */
+    public List<ContinuousOperation> getSlowestProjectConfigurations(int limit) {
+        TopN<ContinuousOperation> slowest = new TopN<>(limit, FASTEST_FIRST);
+        for (ProjectMetrics projectMetrics : projects.values()) {
+            slowest.offer(projectMetrics.getConfigurationOperation());
+        }
+        return slowest.get();
     }
 
     public CompositeOperation<Operation> getProjectConfiguration() {
@@ -112,15 +153,40 @@ public class BuildMetrics {
         return new CompositeOperation<Operation>(operations);
     }
 
+    /**
+     * Get the timings of the tasks executed by the build
+     */
+    public TaskTimings getTaskTimings() {
+        return taskTimings;
+    }
+
     public ContinuousOperation getDependencySetProfile(String dependencySetDescription) {
         ContinuousOperation profile = dependencySets.get(dependencySetDescription);
         if (profile == null) {
-            profile = new ContinuousOperation(dependencySetDescription);
-            dependencySets.put(dependencySetDescription, profile);
+            profile = dependencySets.computeIfAbsent(dependencySetDescription, ContinuousOperation::new);
         }
         return profile;
     }
 
+    /**
+     * Get the profiles of all dependency sets, in no particular order
+     */
+    public Collection<ContinuousOperation> getDependencySetProfiles() {
+        return Collections.unmodifiableCollection(dependencySets.values());
+    }
+
+    /**
+     * Get the slowest dependency set resolutions, slowest first
+     * @param limit the maximum number of resolutions to return
+     */
+    public List<ContinuousOperation> getSlowestDependencySets(int limit) {
+        TopN<ContinuousOperation> slowest = new TopN<>(limit, FASTEST_FIRST);
+        for (ContinuousOperation profile : dependencySets.values()) {
+            slowest.offer(profile);
+        }
+        return slowest.get();
+    }
+
     public CompositeOperation<ContinuousOperation> getDependencySets() {
         final List<ContinuousOperation> profiles = CollectionUtils.sort(dependencySets.values(), Operation.slowestFirst());
         return new CompositeOperation<ContinuousOperation>(profiles);
@@ -129,8 +195,7 @@ public class BuildMetrics {
     public FragmentedOperation getTransformProfile(String transformDescription) {
         FragmentedOperation profile = transforms.get(transformDescription);
         if (profile == null) {
-            profile = new FragmentedOperation(transformDescription);
-            transforms.put(transformDescription, profile);
+            profile = transforms.computeIfAbsent(transformDescription, FragmentedOperation::new);
         }
         return profile;
     }
@@ -238,11 +303,37 @@ public class BuildMetrics {
      * Get the total task execution time from all projects.
      */
     public long getElapsedTotalExecutionTime() {
-        long result = 0;
+        return taskTimings.getTotalElapsedTime();
+    }
+
+    /**
+     * Get the elapsed time (in mSec) between the start of profiling and the buildFinished event during which no
+     * operation was being measured. Overlapping operations, such as parallel tasks, are only counted once.
+     */
+    public long getElapsedUnaccounted() {
+        Intervals intervals = new Intervals();
+        intervals.add(profilingStarted, buildStarted);
+        intervals.add(buildStarted, settingsEvaluated);
+        intervals.add(settingsEvaluated, projectsLoaded);
         for (ProjectMetrics projectMetrics : projects.values()) {
-            result += projectMetrics.getElapsedTime();
+            ContinuousOperation configuration = projectMetrics.getConfigurationOperation();
+            intervals.add(configuration.getStartTime(), configuration.getFinishTime());
         }
-        return result;
+        for (ContinuousOperation dependencySet : dependencySets.values()) {
+            intervals.add(dependencySet.getStartTime(), dependencySet.getFinishTime());
+        }
+        for (FragmentedOperation transform : transforms.values()) {
+            for (ContinuousOperation fragment : transform.getFragments()) {
+                intervals.add(fragment.getStartTime(), fragment.getFinishTime());
+            }
+        }
+        for (int id = 0, size = taskTimings.size(); id < size; id++) {
+            if (taskTimings.isCompleted(id)) {
+                intervals.add(taskTimings.getStartTime(id), taskTimings.getFinishTime(id));
+            }
+        }
+        long elapsedTotal = getElapsedTotal();
+        return Math.max(0, elapsedTotal - intervals.covered(profilingStarted, buildFinished));
     }
 
     public String getBuildStartedDescription() {
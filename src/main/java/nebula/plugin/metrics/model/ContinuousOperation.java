@@ -24,6 +24,7 @@ public class ContinuousOperation extends Operation {
     private long start;
     private long finish;
     private String description;
+    private String worker;
 
     public ContinuousOperation(String description) {
         checkNotNull(description);
@@ -45,10 +46,26 @@ public class ContinuousOperation extends Operation {
         return this;
     }
 
+    /**
+     * The name of the thread the operation ran on, if known.
+     */
+    public String getWorker() {
+        return worker;
+    }
+
+    public ContinuousOperation setWorker(String worker) {
+        this.worker = worker;
+        return this;
+    }
+
     public long getStartTime() {
         return start;
     }
 
+    public long getFinishTime() {
+        return finish;
+    }
+
     @Override
     public long getElapsedTime() {
         return finish - start;
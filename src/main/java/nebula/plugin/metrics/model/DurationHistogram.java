@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A histogram of durations in constant memory, with log-linear buckets in the style of HdrHistogram.
+ * <p>
+ * Durations below 16ms each have their own bucket. Above that, each power of two is split into eight buckets, so a
+ * recorded value is within 12.5% of the value reported for it. The bucket array only grows to the largest duration
+ * recorded, which is a little over 100 buckets for durations of a minute.
+ */
+public final class DurationHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private long[] counts = new long[2 * SUB_BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    public synchronized void record(long duration) {
+        checkArgument(duration >= 0, "duration must not be negative");
+        int index = index(duration);
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, index + 1);
+        }
+        counts[index]++;
+        count++;
+        total += duration;
+        max = Math.max(max, duration);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Return the duration below which the given percentage of recorded durations fall, or zero if nothing has been
+     * recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 100, "percentile must be between 0 and 100");
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int index = 0; index < counts.length; index++) {
+            seen += counts[index];
+            if (seen >= rank) {
+                return Math.min(highestValue(index), max);
+            }
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long subBucket = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Analysis of how the tasks of a build were executed over time.
+ * <p>
+ * Task timings summed per project overstate the execution time of parallel builds, so this looks at the intervals the
+ * tasks ran in: how long at least one task was running, how many ran at once, and the chain of tasks that bounded the
+ * execution time. Task dependencies aren't available to listeners, so the critical path is inferred from the timings,
+ * by walking back from the last task to finish, to the task that finished most recently before it started.
+ */
+@Value
+public class ExecutionAnalysis {
+    /**
+     * Time from the first task starting to the last task finishing.
+     */
+    private long wallClockTime;
+
+    /**
+     * Time at least one task was running.
+     */
+    private long busyTime;
+
+    /**
+     * Time between the first task starting and the last task finishing when no task was running.
+     */
+    private long idleTime;
+
+    /**
+     * Sum of the elapsed time of every task.
+     */
+    private long totalTaskTime;
+
+    /**
+     * Most tasks running at the same time.
+     */
+    private int maxConcurrency;
+
+    /**
+     * Average number of tasks running while at least one task was running.
+     */
+    private double parallelism;
+
+    /**
+     * Share of the wall clock time the workers were running tasks, assuming {@link #maxConcurrency} workers.
+     */
+    private double workerUtilization;
+
+    /**
+     * Sum of the elapsed time of the tasks on the critical path.
+     */
+    private long criticalPathTime;
+
+    /**
+     * Tasks on the critical path, in execution order.
+     */
+    @NonNull
+    private List<String> criticalPath;
+
+    public static ExecutionAnalysis create(TaskTimings timings) {
+        checkNotNull(timings);
+        int[] ids = completedTasks(timings);
+        if (ids.length == 0) {
+            return new ExecutionAnalysis(0, 0, 0, 0, 0, 0, 0, 0, Collections.<String>emptyList());
+        }
+
+        long[] starts = new long[ids.length];
+        long[] finishes = new long[ids.length];
+        long totalTaskTime = 0;
+        for (int i = 0; i < ids.length; i++) {
+            starts[i] = timings.getStartTime(ids[i]);
+            finishes[i] = timings.getFinishTime(ids[i]);
+            totalTaskTime += finishes[i] - starts[i];
+        }
+        Arrays.sort(starts);
+        Arrays.sort(finishes);
+
+        // sweep the sorted start and finish times, finishing before starting on ties so back to back tasks don't overlap
+        long busyTime = 0;
+        int running = 0;
+        int maxConcurrency = 0;
+        long busySince = 0;
+        int s = 0;
+        int f = 0;
+        while (f < finishes.length) {
+            if (s < starts.length && starts[s] < finishes[f]) {
+                if (running++ == 0) {
+                    busySince = starts[s];
+                }
+                maxConcurrency = Math.max(maxConcurrency, running);
+                s++;
+            } else {
+                if (--running == 0) {
+                    busyTime += finishes[f] - busySince;
+                }
+                f++;
+            }
+        }
+
+        long wallClockTime = finishes[finishes.length - 1] - starts[0];
+        double parallelism = busyTime == 0 ? 0 : (double) totalTaskTime / busyTime;
+        double workerUtilization = wallClockTime == 0 ? 0 : (double) totalTaskTime / ((double) maxConcurrency * wallClockTime);
+
+        List<String> criticalPath = new ArrayList<>();
+        long criticalPathTime = criticalPath(timings, ids, criticalPath);
+        return new ExecutionAnalysis(wallClockTime, busyTime, wallClockTime - busyTime, totalTaskTime, maxConcurrency,
+                parallelism, workerUtilization, criticalPathTime, criticalPath);
+    }
+
+    private static int[] completedTasks(TaskTimings timings) {
+        int size = timings.size();
+        int[] ids = new int[size];
+        int count = 0;
+        for (int id = 0; id < size; id++) {
+            if (timings.isCompleted(id)) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static long criticalPath(final TaskTimings timings, int[] ids, List<String> path) {
+        Integer[] byFinish = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            byFinish[i] = ids[i];
+        }
+        Arrays.sort(byFinish, Comparator.comparingLong(timings::getFinishTime));
+        long[] finishes = new long[byFinish.length];
+        for (int i = 0; i < byFinish.length; i++) {
+            finishes[i] = timings.getFinishTime(byFinish[i]);
+        }
+
+        long elapsed = 0;
+        int current = byFinish.length - 1;
+        while (current >= 0) {
+            int id = byFinish[current];
+            path.add(timings.getPath(id));
+            elapsed += timings.getElapsedTime(id);
+            // only tasks earlier in finish order are candidates, so the walk always terminates
+            current = lastFinishedBy(finishes, current, timings.getStartTime(id));
+        }
+        Collections.reverse(path);
+        return elapsed;
+    }
+
+    /**
+     * Return the index of the last task before {@code end} in finish order that finished by {@code time}, or -1.
+     */
+    private static int lastFinishedBy(long[] finishes, int end, long time) {
+        int low = 0;
+        int high = end - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (finishes[mid] <= time) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+}
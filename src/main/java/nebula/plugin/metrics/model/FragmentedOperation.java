@@ -16,14 +16,13 @@
 
 package nebula.plugin.metrics.model;
 
-import com.google.common.collect.Sets;
-
 import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class FragmentedOperation extends Operation {
     private final String description;
-    private final Collection<ContinuousOperation> children = Sets.newHashSet();
+    private final Collection<ContinuousOperation> children = ConcurrentHashMap.newKeySet();
 
     public FragmentedOperation(String description) {
         checkNotNull(description);
@@ -44,6 +43,10 @@ public class FragmentedOperation extends Operation {
         return description;
     }
 
+    Collection<ContinuousOperation> getFragments() {
+        return children;
+    }
+
     public ContinuousOperation start(long start) {
         ContinuousOperation child = new ContinuousOperation("<child>");
         child.setStart(start);
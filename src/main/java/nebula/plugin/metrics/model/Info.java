@@ -17,17 +17,20 @@
 
 package nebula.plugin.metrics.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NonNull;
 import lombok.Value;
+import org.gradle.api.invocation.Gradle;
 
+import java.io.File;
 import java.util.*;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Environment.
@@ -42,15 +45,54 @@ public class Info {
     private static final String HOTSPOT = "HotSpot(TM)";
     private static final String EMPTY_STRING = "";
     private static final String SPACE = " ";
-    private static final String SANITIZED = "SANITIZED";
+    private static final String NEBULA_FEATURE = "nebula.feature";
+    private static final String GRADLE_PROPERTIES = "gradle.properties";
 
     public static Info create(GradleToolContainer tool, org.gradle.api.Project gradleProject) {
         return create(tool, new UnknownTool(), new UnknownTool(), gradleProject);
     }
 
     public static Info create(Tool tool, Tool scm, Tool ci, org.gradle.api.Project gradleProject) {
-        Map<String, String> systemProps = new HashMap(System.getProperties());
-        return create(tool, scm, ci, System.getenv(), systemProps, getNebulaFeatures(gradleProject, systemProps));
+        return create(tool, scm, ci, gradleProject, KeyFilter.all(), KeyFilter.all());
+    }
+
+    /**
+     * Create the environment of the current build. Environment variables and system properties are only captured when
+     * they're first read, usually when the build document is serialized, and only for the keys accepted by the filters.
+     */
+    public static Info create(Tool tool, Tool scm, Tool ci, org.gradle.api.Project gradleProject, KeyFilter environmentFilter, KeyFilter systemPropertiesFilter) {
+        checkNotNull(environmentFilter);
+        checkNotNull(systemPropertiesFilter);
+        List<KeyValue> envList = new LazyKeyValues(() -> {
+            Map<String, String> env = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : System.getenv().entrySet()) {
+                if (environmentFilter.accept(entry.getKey())) {
+                    env.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return KeyValue.mapToKeyValueList(env);
+        });
+        List<KeyValue> systemPropertiesList = new LazyKeyValues(() -> KeyValue.mapToKeyValueList(systemProperties(systemPropertiesFilter::accept)));
+        Map<String, String> featureSystemProperties = systemProperties(key -> key.startsWith(NEBULA_FEATURE) || key.startsWith("org.gradle.project." + NEBULA_FEATURE));
+        List<KeyValue> nebulaFeaturesList = KeyValue.mapToKeyValueList(getNebulaFeatures(gradleProject, featureSystemProperties));
+        String javaVersion = System.getProperty("java.version", "");
+        String detailedJavaVersion = determineJavaVersion(System.getProperty("java.runtime.name", ""), javaVersion, System.getProperty("java.vm.vendor", ""));
+        return new Info(tool, scm, ci, envList, systemPropertiesList, nebulaFeaturesList, javaVersion.isEmpty() ? "unknown" : javaVersion, detailedJavaVersion, false);
+    }
+
+    private static Map<String, String> systemProperties(Predicate<String> filter) {
+        Properties properties = System.getProperties();
+        Map<String, String> systemProperties = new LinkedHashMap<>();
+        // stringPropertyNames() takes a snapshot of the names, so properties can be set concurrently
+        for (String name : properties.stringPropertyNames()) {
+            if (filter.test(name)) {
+                String value = properties.getProperty(name);
+                if (value != null) {
+                    systemProperties.put(name, value);
+                }
+            }
+        }
+        return systemProperties;
     }
 
     public static Info create(Tool tool, Tool scm, Tool ci, Map<String, String> env, Map<String, String> systemProperties, Map<String, String> nebulaFeatures) {
@@ -61,7 +103,7 @@ public class Info {
         String javaVersion = systemProperties.containsKey("java.version") ? systemProperties.get("java.version") : "";
         String javaVendor = systemProperties.containsKey("java.vm.vendor") ? systemProperties.get("java.vm.vendor") : "";
         String detailedJavaVersion = determineJavaVersion(javaRuntimeName, javaVersion, javaVendor);
-        return new Info(tool, scm, ci, envList, systemPropertiesList, nebulaFeaturesList, javaVersion.isEmpty() ? "unknown" : javaVersion, detailedJavaVersion);
+        return new Info(tool, scm, ci, envList, systemPropertiesList, nebulaFeaturesList, javaVersion.isEmpty() ? "unknown" : javaVersion, detailedJavaVersion, false);
     }
 
     @NonNull
@@ -88,6 +130,13 @@ public class Info {
     @NonNull
     private String detailedJavaVersion;
 
+    /**
+     * Whether the info has been through a {@link Sanitizer}, so it isn't sanitized again.
+     */
+    @JsonIgnore
+    @EqualsAndHashCode.Exclude
+    private boolean sanitized;
+
     public static String determineJavaVersion(String javaRuntimeName, String javaVersion, String javaVendor) {
         if(javaVersion.isEmpty()) {
           return UNKNOWN.toLowerCase();
@@ -108,38 +157,34 @@ public class Info {
     }
 
     public static Info sanitize(Info info, List<String> sanitizedProperties, String sanitizedPropertiesRegex) {
-        Pattern sanitizedPropertiesPattern = Pattern.compile(sanitizedPropertiesRegex);
-        return new Info(info.getBuild(), info.getScm(), info.getCi(),
-                sanitizeKeyValues(info.getEnvironmentVariables(), sanitizedProperties, sanitizedPropertiesPattern),
-                sanitizeKeyValues(info.getSystemProperties(), sanitizedProperties, sanitizedPropertiesPattern),
-                sanitizeKeyValues(info.getNebulaFeatures(), sanitizedProperties, sanitizedPropertiesPattern),
-                info.getJavaVersion(),
-                info.getDetailedJavaVersion());
+        return new Sanitizer(sanitizedProperties, sanitizedPropertiesRegex).sanitize(info);
     }
 
-    private static List<KeyValue> sanitizeKeyValues(List<KeyValue> keyValues, List<String> sanitizedProperties, Pattern sanitizedPropertiesPattern) {
-        List<KeyValue> sanitizedKeyValues = new ArrayList<>();
-        for (KeyValue keyValue : keyValues) {
-            Matcher m = sanitizedPropertiesPattern.matcher(keyValue.getKey());
-            if (sanitizedProperties.contains(keyValue.getKey()) || m.matches()) {
-                sanitizedKeyValues.add(new KeyValue(keyValue.getKey(), SANITIZED));
-            } else {
-                sanitizedKeyValues.add(keyValue);
-            }
-        }
-        return sanitizedKeyValues;
-    }
-
-    private static Map<String, String> getNebulaFeatures(org.gradle.api.Project gradleProject,  Map<String, String> systemProperties) {
+    /**
+     * Find the nebula features of a build without calling {@link org.gradle.api.Project#getProperties()}, which
+     * realizes every property of the project. The sources are applied in the same order as Gradle applies project
+     * properties, followed by system properties.
+     */
+    private static Map<String, String> getNebulaFeatures(org.gradle.api.Project gradleProject, Map<String, String> systemProperties) {
+        Gradle gradle = gradleProject.getGradle();
         Map<String, String> nebulaFeatures = new HashMap<>();
-        List<Map.Entry<String, ?>> nebulaFeaturesFromProjectProperties = extractNebulaFeatures(gradleProject.getProperties());
-        List<Map.Entry<String, ?>> nebulaFeaturesFromSystemProperties = extractNebulaFeatures(systemProperties);
-        nebulaFeaturesFromProjectProperties.forEach(stringEntry -> nebulaFeatures.put(stringEntry.getKey(), stringEntry.getValue().toString()));
-        nebulaFeaturesFromSystemProperties.forEach(stringEntry -> nebulaFeatures.put(stringEntry.getKey(), stringEntry.getValue().toString()));
+        putNebulaFeatures(nebulaFeatures, PropertiesFileCache.get(new File(gradleProject.getRootDir(), GRADLE_PROPERTIES)), "");
+        putNebulaFeatures(nebulaFeatures, PropertiesFileCache.get(new File(gradle.getGradleUserHomeDir(), GRADLE_PROPERTIES)), "");
+        putNebulaFeatures(nebulaFeatures, System.getenv(), "ORG_GRADLE_PROJECT_");
+        putNebulaFeatures(nebulaFeatures, systemProperties, "org.gradle.project.");
+        putNebulaFeatures(nebulaFeatures, gradle.getStartParameter().getProjectProperties(), "");
+        // features set by build scripts are extra properties, which are held in a map of their own
+        putNebulaFeatures(nebulaFeatures, gradleProject.getExtensions().getExtraProperties().getProperties(), "");
+        putNebulaFeatures(nebulaFeatures, systemProperties, "");
         return nebulaFeatures;
     }
 
-    private static  List<Map.Entry<String, ?>> extractNebulaFeatures(Map<String, ?> properties) {
-        return properties.entrySet().stream().filter((Predicate<Map.Entry<String, ?>>) stringEntry -> stringEntry.getKey().startsWith("nebula.feature")).collect(Collectors.toList());
+    private static void putNebulaFeatures(Map<String, String> nebulaFeatures, Map<String, ?> properties, String prefix) {
+        String featurePrefix = prefix + NEBULA_FEATURE;
+        for (Map.Entry<String, ?> entry : properties.entrySet()) {
+            if (entry.getKey().startsWith(featurePrefix) && entry.getValue() != null) {
+                nebulaFeatures.put(entry.getKey().substring(prefix.length()), entry.getValue().toString());
+            }
+        }
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model;
+
+import java.util.Arrays;
+
+/**
+ * A set of time intervals, which may overlap, used to work out how much time they cover between them.
+ */
+final class Intervals {
+    private long[] starts = new long[64];
+    private long[] finishes = new long[64];
+    private int size;
+
+    /**
+     * Add an interval, ignoring intervals that were never completed.
+     */
+    void add(long start, long finish) {
+        if (start <= 0 || finish <= start) {
+            return;
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            finishes = Arrays.copyOf(finishes, size * 2);
+        }
+        starts[size] = start;
+        finishes[size] = finish;
+        size++;
+    }
+
+    /**
+     * Return the time covered by at least one interval, counting only the part of each interval between {@code from}
+     * and {@code to}.
+     */
+    long covered(long from, long to) {
+        long[] sortedStarts = Arrays.copyOf(starts, size);
+        long[] sortedFinishes = Arrays.copyOf(finishes, size);
+        Arrays.sort(sortedStarts);
+        Arrays.sort(sortedFinishes);
+
+        // every interval is non-empty, so the union is the time during which more intervals have started than finished
+        long covered = 0;
+        long coveredSince = 0;
+        int open = 0;
+        int s = 0;
+        int f = 0;
+        while (f < size) {
+            if (s < size && sortedStarts[s] <= sortedFinishes[f]) {
+                if (open++ == 0) {
+                    coveredSince = sortedStarts[s];
+                }
+                s++;
+            } else {
+                if (--open == 0) {
+                    covered += Math.max(0, Math.min(sortedFinishes[f], to) - Math.max(coveredSince, from));
+                }
+                f++;
+            }
+        }
+        return covered;
+    }
+}
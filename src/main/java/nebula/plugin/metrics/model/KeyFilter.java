@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decides which environment variables or system properties are captured, from include and exclude patterns.
+ * <p>
+ * A key is accepted if it matches any of the include patterns, or there are none, and doesn't match any of the exclude
+ * patterns.
+ */
+public final class KeyFilter {
+    private static final KeyFilter ALL = new KeyFilter(new ArrayList<>(), new ArrayList<>());
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    public KeyFilter(Collection<String> includes, Collection<String> excludes) {
+        this.includes = compile(checkNotNull(includes));
+        this.excludes = compile(checkNotNull(excludes));
+    }
+
+    /**
+     * Return a filter that accepts every key.
+     */
+    public static KeyFilter all() {
+        return ALL;
+    }
+
+    public boolean accept(String key) {
+        checkNotNull(key);
+        return (includes.isEmpty() || matchesAny(includes, key)) && !matchesAny(excludes, key);
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String key) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(key).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> compile(Collection<String> regexes) {
+        List<Pattern> patterns = new ArrayList<>(regexes.size());
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        return patterns;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Key/values that are only captured the first time they're read, which is usually when the build document is
+ * serialized.
+ */
+final class LazyKeyValues extends AbstractList<KeyValue> {
+    private final Supplier<List<KeyValue>> capture;
+    private volatile List<KeyValue> keyValues;
+
+    LazyKeyValues(Supplier<List<KeyValue>> capture) {
+        this.capture = checkNotNull(capture);
+    }
+
+    boolean isCaptured() {
+        return keyValues != null;
+    }
+
+    @Override
+    public KeyValue get(int index) {
+        return keyValues().get(index);
+    }
+
+    @Override
+    public int size() {
+        return keyValues().size();
+    }
+
+    private List<KeyValue> keyValues() {
+        List<KeyValue> keyValues = this.keyValues;
+        if (keyValues == null) {
+            synchronized (this) {
+                keyValues = this.keyValues;
+                if (keyValues == null) {
+                    keyValues = checkNotNull(capture.get());
+                    this.keyValues = keyValues;
+                }
+            }
+        }
+        return keyValues;
+    }
+}
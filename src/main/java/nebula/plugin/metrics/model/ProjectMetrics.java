@@ -15,43 +15,21 @@
  */
 package nebula.plugin.metrics.model;
 
-import org.gradle.util.CollectionUtils;
-
-import java.util.HashMap;
-import java.util.List;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class ProjectMetrics extends Operation {
-    private HashMap<String, TaskExecution> tasks = new HashMap<String, TaskExecution>();
     private final ContinuousOperation configurationOperation;
+    private final TaskTimings taskTimings;
     private String projectPath;
 
-    public ProjectMetrics(String projectPath) {
+    public ProjectMetrics(String projectPath, TaskTimings taskTimings) {
         checkNotNull(projectPath);
+        checkNotNull(taskTimings);
         this.projectPath = projectPath;
+        this.taskTimings = taskTimings;
         this.configurationOperation = new ContinuousOperation(projectPath);
     }
 
-    /**
-     * Gets the task profiling container for the specified task.
-     */
-    public TaskExecution getTaskProfile(String taskPath) {
-        TaskExecution result = tasks.get(taskPath);
-        if (result == null) {
-            result = new TaskExecution(taskPath);
-            tasks.put(taskPath, result);
-        }
-        return result;
-    }
-
-    /**
-     * Returns the task executions for this project.
-     */
-    public CompositeOperation<TaskExecution> getTasks() {
-        List<TaskExecution> taskExecutions = CollectionUtils.sort(tasks.values(), slowestFirst());
-        return new CompositeOperation<TaskExecution>(taskExecutions);
-    }
-
     /**
      * Get the String project path.
      */
@@ -77,6 +55,6 @@ public class ProjectMetrics extends Operation {
 
     @Override
     long getElapsedTime() {
-        return getTasks().getElapsedTime();
+        return taskTimings.getProjectElapsedTime(projectPath);
     }
 }
@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the contents of properties files, such as {@code gradle.properties}, for the life of the daemon.
+ * <p>
+ * A cached file is only read again when its modification time or size change, so builds that don't change their
+ * properties files don't pay to read and parse them again.
+ */
+public final class PropertiesFileCache {
+    private static final ConcurrentMap<File, Entry> CACHE = new ConcurrentHashMap<>();
+
+    private PropertiesFileCache() {
+    }
+
+    /**
+     * Return the properties in a file, which are empty if the file doesn't exist or can't be read.
+     */
+    public static Map<String, String> get(File file) {
+        checkNotNull(file);
+        File key = file.getAbsoluteFile();
+        // a missing file has a modification time and size of zero, so it's cached like any other
+        long lastModified = key.lastModified();
+        long length = key.length();
+        Entry entry = CACHE.get(key);
+        if (entry == null || entry.lastModified != lastModified || entry.length != length) {
+            entry = new Entry(lastModified, length, read(key));
+            CACHE.put(key, entry);
+        }
+        return entry.properties;
+    }
+
+    private static Map<String, String> read(File file) {
+        if (!file.isFile()) {
+            return Collections.emptyMap();
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            map.put(name, properties.getProperty(name));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static final class Entry {
+        private final long lastModified;
+        private final long length;
+        private final Map<String, String> properties;
+
+        private Entry(long lastModified, long length, Map<String, String> properties) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.properties = properties;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Replaces the values of sensitive environment variables, system properties and features of an {@link Info}.
+ * <p>
+ * A key is sensitive if it is one of the sanitized properties, or matches the sanitized properties pattern. The
+ * pattern is compiled once, and the decision for each key is cached, so a sanitizer should be created once for a
+ * configuration and reused.
+ */
+public final class Sanitizer {
+    private static final String SANITIZED = "SANITIZED";
+
+    private final List<String> sanitizedProperties;
+    private final String sanitizedPropertiesRegex;
+    private final Set<String> sanitizedKeys;
+    private final Pattern sanitizedPropertiesPattern;
+    private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<>();
+
+    public Sanitizer(Collection<String> sanitizedProperties, String sanitizedPropertiesRegex) {
+        checkNotNull(sanitizedProperties);
+        this.sanitizedProperties = new ArrayList<>(sanitizedProperties);
+        this.sanitizedPropertiesRegex = checkNotNull(sanitizedPropertiesRegex);
+        this.sanitizedKeys = new HashSet<>(sanitizedProperties);
+        this.sanitizedPropertiesPattern = Pattern.compile(sanitizedPropertiesRegex);
+    }
+
+    /**
+     * Return whether this sanitizer was created with the given configuration.
+     */
+    public boolean isConfiguredWith(List<String> sanitizedProperties, String sanitizedPropertiesRegex) {
+        return this.sanitizedPropertiesRegex.equals(sanitizedPropertiesRegex) && this.sanitizedProperties.equals(sanitizedProperties);
+    }
+
+    public boolean isSanitized(String key) {
+        checkNotNull(key);
+        Boolean decision = decisions.get(key);
+        if (decision == null) {
+            decision = sanitizedKeys.contains(key) || sanitizedPropertiesPattern.matcher(key).matches();
+            decisions.put(key, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Return a sanitized copy of an {@link Info}, or the info itself if it has already been sanitized.
+     */
+    public Info sanitize(Info info) {
+        checkNotNull(info);
+        if (info.isSanitized()) {
+            return info;
+        }
+        return new Info(info.getBuild(), info.getScm(), info.getCi(),
+                sanitize(info.getEnvironmentVariables()),
+                sanitize(info.getSystemProperties()),
+                sanitize(info.getNebulaFeatures()),
+                info.getJavaVersion(),
+                info.getDetailedJavaVersion(),
+                true);
+    }
+
+    /**
+     * Return the key/values with sensitive values replaced, which is the same list if none of them are sensitive.
+     * Key/values that haven't been captured yet are sanitized when they are.
+     */
+    List<KeyValue> sanitize(List<KeyValue> keyValues) {
+        if (keyValues instanceof LazyKeyValues && !((LazyKeyValues) keyValues).isCaptured()) {
+            return new LazyKeyValues(() -> sanitizeCaptured(keyValues));
+        }
+        return sanitizeCaptured(keyValues);
+    }
+
+    private List<KeyValue> sanitizeCaptured(List<KeyValue> keyValues) {
+        List<KeyValue> sanitizedKeyValues = null;
+        for (int i = 0; i < keyValues.size(); i++) {
+            KeyValue keyValue = keyValues.get(i);
+            if (isSanitized(keyValue.getKey())) {
+                if (sanitizedKeyValues == null) {
+                    sanitizedKeyValues = new ArrayList<>(keyValues);
+                }
+                sanitizedKeyValues.set(i, new KeyValue(keyValue.getKey(), SANITIZED));
+            }
+        }
+        return sanitizedKeyValues == null ? keyValues : sanitizedKeyValues;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The slowest project configurations, dependency resolutions and tasks of a build.
+ */
+@Value
+public class SlowestOperations {
+    public static SlowestOperations create(BuildMetrics buildMetrics, int limit) {
+        checkNotNull(buildMetrics);
+        List<Entry> configurations = new ArrayList<>();
+        for (ContinuousOperation operation : buildMetrics.getSlowestProjectConfigurations(limit)) {
+            configurations.add(new Entry(operation.getDescription(), operation.getElapsedTime()));
+        }
+        List<Entry> resolutions = new ArrayList<>();
+        for (ContinuousOperation operation : buildMetrics.getSlowestDependencySets(limit)) {
+            resolutions.add(new Entry(operation.getDescription(), operation.getElapsedTime()));
+        }
+        List<Entry> tasks = new ArrayList<>();
+        TaskTimings timings = buildMetrics.getTaskTimings();
+        for (int id : timings.getSlowestTaskIds(limit)) {
+            tasks.add(new Entry(timings.getPath(id), timings.getElapsedTime(id)));
+        }
+        return new SlowestOperations(configurations, resolutions, tasks);
+    }
+
+    @NonNull
+    private List<Entry> configurations;
+
+    @NonNull
+    private List<Entry> resolutions;
+
+    @NonNull
+    private List<Entry> tasks;
+
+    /**
+     * An operation and its elapsed time.
+     */
+    @Value
+    public static class Entry {
+        @NonNull
+        private String description;
+
+        private long elapsedTime;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Creates failure results that hold each distinct stack trace only once.
+ * <p>
+ * Failures are fingerprinted by a hash of their exception types and stack frames, ignoring messages and the generated
+ * class names that differ between otherwise identical traces. The first failure with a fingerprint keeps its stack
+ * trace, capped in depth and length. Later failures with the same fingerprint only keep their exception and message,
+ * along with the fingerprint, so a build where thousands of tests fail the same way doesn't carry thousands of copies
+ * of the same trace.
+ */
+public final class StackTraceFingerprints {
+    private static final int MAX_TRACE_LENGTH = 16 * 1024;
+    private static final Pattern GENERATED_NAMES = Pattern.compile("\\$\\$Lambda\\$\\d+/(0x)?[0-9a-f]+|(GeneratedMethodAccessor|GeneratedConstructorAccessor|\\$Proxy)\\d+");
+
+    private final int maxFrames;
+    private final ConcurrentMap<String, Trace> traces = new ConcurrentHashMap<>();
+
+    public StackTraceFingerprints(int maxFrames) {
+        checkArgument(maxFrames > 0, "maxFrames must be greater than zero");
+        this.maxFrames = maxFrames;
+    }
+
+    public Result failure(Throwable throwable) {
+        return failure(Collections.singletonList(throwable));
+    }
+
+    public Result failure(Iterable<? extends Throwable> failures) {
+        checkNotNull(failures);
+        List<String> stringFailures = new ArrayList<>();
+        for (Throwable throwable : failures) {
+            String fingerprint = fingerprint(throwable);
+            Trace trace = traces.get(fingerprint);
+            if (trace == null) {
+                Trace created = new Trace(format(throwable));
+                trace = traces.putIfAbsent(fingerprint, created);
+                if (trace == null) {
+                    created.count.incrementAndGet();
+                    stringFailures.add(created.trace + "\n(stack trace " + fingerprint + ")");
+                    continue;
+                }
+            }
+            trace.count.incrementAndGet();
+            stringFailures.add(throwable + "\n(stack trace " + fingerprint + ", see first occurrence)");
+        }
+        return new Result(Result.ResultStatus.FAILURE, stringFailures);
+    }
+
+    /**
+     * Return each distinct stack trace seen so far, with the number of failures that had it.
+     */
+    public List<Fingerprint> getFingerprints() {
+        List<Fingerprint> fingerprints = new ArrayList<>(traces.size());
+        for (Map.Entry<String, Trace> entry : traces.entrySet()) {
+            fingerprints.add(new Fingerprint(entry.getKey(), entry.getValue().trace, entry.getValue().count.get()));
+        }
+        fingerprints.sort((a, b) -> {
+            int byCount = Long.compare(b.getCount(), a.getCount());
+            return byCount != 0 ? byCount : a.getFingerprint().compareTo(b.getFingerprint());
+        });
+        return fingerprints;
+    }
+
+    static String fingerprint(Throwable throwable) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (Throwable cause : causes(throwable)) {
+            hasher.putString(cause.getClass().getName(), StandardCharsets.UTF_8);
+            for (StackTraceElement frame : cause.getStackTrace()) {
+                hasher.putString(normalize(frame.getClassName()), StandardCharsets.UTF_8);
+                hasher.putChar('.');
+                hasher.putString(frame.getMethodName(), StandardCharsets.UTF_8);
+                hasher.putInt(frame.getLineNumber());
+            }
+        }
+        return hasher.hash().toString().substring(0, 16);
+    }
+
+    private String format(Throwable throwable) {
+        StringBuilder builder = new StringBuilder();
+        boolean first = true;
+        for (Throwable cause : causes(throwable)) {
+            if (!first) {
+                builder.append("Caused by: ");
+            }
+            first = false;
+            builder.append(cause).append('\n');
+            StackTraceElement[] frames = cause.getStackTrace();
+            int shown = Math.min(frames.length, maxFrames);
+            for (int i = 0; i < shown; i++) {
+                builder.append("\tat ").append(frames[i]).append('\n');
+            }
+            if (shown < frames.length) {
+                builder.append("\t... ").append(frames.length - shown).append(" more\n");
+            }
+            if (builder.length() >= MAX_TRACE_LENGTH) {
+                builder.setLength(MAX_TRACE_LENGTH);
+                builder.append("\n\t... truncated\n");
+                break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static List<Throwable> causes(Throwable throwable) {
+        checkNotNull(throwable);
+        List<Throwable> causes = new ArrayList<>();
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Throwable cause = throwable; cause != null && seen.add(cause); cause = cause.getCause()) {
+            causes.add(cause);
+        }
+        return causes;
+    }
+
+    private static String normalize(String className) {
+        return GENERATED_NAMES.matcher(className).replaceAll("");
+    }
+
+    /**
+     * A distinct stack trace.
+     */
+    @Value
+    public static class Fingerprint {
+        @NonNull
+        private String fingerprint;
+
+        @NonNull
+        private String trace;
+
+        private long count;
+    }
+
+    private static final class Trace {
+        private final String trace;
+        private final AtomicLong count = new AtomicLong();
+
+        private Trace(String trace) {
+            this.trace = trace;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model;
+
+import org.gradle.api.tasks.TaskState;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Columnar store of task execution timings.
+ * <p>
+ * Task paths are interned to int ids when a task starts, and the timings and status of each task are kept in
+ * primitive arrays indexed by id, so recording a task execution doesn't allocate. Model objects are created from the
+ * columns when the build finishes. The columns are allocated in fixed size chunks, so they grow without copying while
+ * tasks are being recorded from several worker threads.
+ * <p>
+ * The worker thread that started each task is recorded too, interned per thread so it's only looked up once.
+ */
+public final class TaskTimings {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final byte PENDING = 0;
+    private static final byte SUCCESS = 1;
+    private static final byte SKIPPED = 2;
+    private static final byte FAILURE = 3;
+
+    private final ConcurrentMap<String, Integer> taskIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> projectIds = new ConcurrentHashMap<>();
+    private final List<String> projectPaths = new ArrayList<>();
+    private final List<String> workerNames = new ArrayList<>();
+    private final ThreadLocal<Integer> workerIds = ThreadLocal.withInitial(() -> {
+        synchronized (workerNames) {
+            workerNames.add(Thread.currentThread().getName());
+            return workerNames.size() - 1;
+        }
+    });
+    // failures are rare, so their causes are kept to one side rather than in a column
+    private final ConcurrentMap<Integer, Throwable> failures = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    /**
+     * Return the id of a task, assigning one the first time the task is seen.
+     */
+    public int id(String projectPath, String taskPath) {
+        checkNotNull(projectPath);
+        checkNotNull(taskPath);
+        Integer id = taskIds.get(taskPath);
+        if (id == null) {
+            id = taskIds.computeIfAbsent(taskPath, path -> allocate(projectId(projectPath), path));
+        }
+        return id;
+    }
+
+    /**
+     * Record the start of a task on the current thread.
+     */
+    public void started(int id, long start) {
+        Chunk chunk = chunk(id);
+        int index = id & CHUNK_MASK;
+        chunk.workers[index] = workerIds.get();
+        chunk.start.set(index, start);
+    }
+
+    /**
+     * Record the completion of a task.
+     */
+    public void completed(int id, long finish, @Nullable TaskState state) {
+        Chunk chunk = chunk(id);
+        int index = id & CHUNK_MASK;
+        byte status;
+        if (state == null || !state.getDidWork()) {
+            status = SKIPPED;
+        } else if (state.getFailure() != null) {
+            status = FAILURE;
+            failures.put(id, state.getFailure());
+        } else {
+            status = SUCCESS;
+        }
+        chunk.status[index] = status;
+        // the volatile write of the finish time publishes the status written before it
+        chunk.finish.set(index, finish);
+    }
+
+    /**
+     * Return the number of tasks recorded.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public String getPath(int id) {
+        return chunk(id).paths[id & CHUNK_MASK];
+    }
+
+    public String getProjectPath(int id) {
+        int projectId = chunk(id).projects[id & CHUNK_MASK];
+        synchronized (projectPaths) {
+            return projectPaths.get(projectId);
+        }
+    }
+
+    /**
+     * Return the name of the thread that started a task.
+     */
+    public String getWorker(int id) {
+        Chunk chunk = chunk(id);
+        int index = id & CHUNK_MASK;
+        chunk.start.get(index);
+        int workerId = chunk.workers[index];
+        synchronized (workerNames) {
+            return workerNames.get(workerId);
+        }
+    }
+
+    public long getStartTime(int id) {
+        return chunk(id).start.get(id & CHUNK_MASK);
+    }
+
+    public long getFinishTime(int id) {
+        return chunk(id).finish.get(id & CHUNK_MASK);
+    }
+
+    public long getElapsedTime(int id) {
+        Chunk chunk = chunk(id);
+        int index = id & CHUNK_MASK;
+        return chunk.finish.get(index) - chunk.start.get(index);
+    }
+
+    /**
+     * Return whether the completion of a task has been recorded.
+     */
+    public boolean isCompleted(int id) {
+        Chunk chunk = chunk(id);
+        int index = id & CHUNK_MASK;
+        chunk.finish.get(index);
+        return chunk.status[index] != PENDING;
+    }
+
+    /**
+     * Return the failure of a task, or null if it didn't fail.
+     */
+    @Nullable
+    public Throwable getFailure(int id) {
+        return failures.get(id);
+    }
+
+    /**
+     * Return the result of a task. Tasks that haven't completed, or did no work, are skipped.
+     */
+    public Result getResult(int id) {
+        Chunk chunk = chunk(id);
+        int index = id & CHUNK_MASK;
+        chunk.finish.get(index);
+        switch (chunk.status[index]) {
+            case SUCCESS:
+                return Result.success();
+            case FAILURE:
+                return Result.failure(failures.get(id));
+            case SKIPPED:
+            case PENDING:
+            default:
+                return Result.skipped();
+        }
+    }
+
+    /**
+     * Return the total elapsed time of every task.
+     */
+    public long getTotalElapsedTime() {
+        long total = 0;
+        for (int id = 0, size = size(); id < size; id++) {
+            total += getElapsedTime(id);
+        }
+        return total;
+    }
+
+    /**
+     * Return the total elapsed time of the tasks of a project.
+     */
+    public long getProjectElapsedTime(String projectPath) {
+        Integer projectId = projectIds.get(projectPath);
+        if (projectId == null) {
+            return 0;
+        }
+        long total = 0;
+        for (int id = 0, size = size(); id < size; id++) {
+            if (chunk(id).projects[id & CHUNK_MASK] == projectId) {
+                total += getElapsedTime(id);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Return the ids of the slowest tasks, slowest first.
+     *
+     * @param limit the maximum number of tasks to return
+     */
+    public int[] getSlowestTaskIds(int limit) {
+        TopN<Integer> slowest = new TopN<>(limit, (a, b) -> {
+            int byElapsedTime = Long.compare(getElapsedTime(a), getElapsedTime(b));
+            return byElapsedTime != 0 ? byElapsedTime : getPath(b).compareTo(getPath(a));
+        });
+        for (int id = 0, size = size(); id < size; id++) {
+            if (isCompleted(id)) {
+                slowest.offer(id);
+            }
+        }
+        List<Integer> ids = slowest.get();
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Return the ids of the tasks of each project, slowest project first, and the tasks of each project slowest first.
+     */
+    public Map<String, int[]> getTaskIdsByProject() {
+        int size = size();
+        final int projectCount;
+        synchronized (projectPaths) {
+            projectCount = projectPaths.size();
+        }
+        int[] counts = new int[projectCount];
+        final long[] projectElapsed = new long[projectCount];
+        for (int id = 0; id < size; id++) {
+            int projectId = chunk(id).projects[id & CHUNK_MASK];
+            counts[projectId]++;
+            projectElapsed[projectId] += getElapsedTime(id);
+        }
+        Integer[][] projectTasks = new Integer[projectCount][];
+        for (int projectId = 0; projectId < projectCount; projectId++) {
+            projectTasks[projectId] = new Integer[counts[projectId]];
+            counts[projectId] = 0;
+        }
+        for (int id = 0; id < size; id++) {
+            int projectId = chunk(id).projects[id & CHUNK_MASK];
+            projectTasks[projectId][counts[projectId]++] = id;
+        }
+
+        Comparator<Integer> slowestTaskFirst = (a, b) -> {
+            int byElapsedTime = Long.compare(getElapsedTime(b), getElapsedTime(a));
+            return byElapsedTime != 0 ? byElapsedTime : getPath(a).compareTo(getPath(b));
+        };
+        Integer[] projectOrder = new Integer[projectCount];
+        for (int projectId = 0; projectId < projectCount; projectId++) {
+            projectOrder[projectId] = projectId;
+        }
+        final List<String> paths;
+        synchronized (projectPaths) {
+            paths = new ArrayList<>(projectPaths.subList(0, projectCount));
+        }
+        Arrays.sort(projectOrder, (a, b) -> {
+            int byElapsedTime = Long.compare(projectElapsed[b], projectElapsed[a]);
+            return byElapsedTime != 0 ? byElapsedTime : paths.get(a).compareTo(paths.get(b));
+        });
+
+        Map<String, int[]> tasksByProject = new LinkedHashMap<>();
+        for (int projectId : projectOrder) {
+            Integer[] tasks = projectTasks[projectId];
+            if (tasks.length == 0) {
+                continue;
+            }
+            Arrays.sort(tasks, slowestTaskFirst);
+            int[] ids = new int[tasks.length];
+            for (int i = 0; i < tasks.length; i++) {
+                ids[i] = tasks[i];
+            }
+            tasksByProject.put(paths.get(projectId), ids);
+        }
+        return tasksByProject;
+    }
+
+    private int projectId(String projectPath) {
+        Integer id = projectIds.get(projectPath);
+        if (id == null) {
+            id = projectIds.computeIfAbsent(projectPath, path -> {
+                synchronized (projectPaths) {
+                    projectPaths.add(path);
+                    return projectPaths.size() - 1;
+                }
+            });
+        }
+        return id;
+    }
+
+    private synchronized int allocate(int projectId, String taskPath) {
+        // computeIfAbsent only excludes callers for the same task, so ids are allocated under the monitor, and the size
+        // is only incremented once the path and project are written, so readers never see an id without them
+        int id = size.get();
+        Chunk chunk = chunkForAllocation(id);
+        int index = id & CHUNK_MASK;
+        chunk.paths[index] = taskPath;
+        chunk.projects[index] = projectId;
+        size.incrementAndGet();
+        return id;
+    }
+
+    private Chunk chunk(int id) {
+        checkArgument(id >= 0 && id < size.get(), "Unknown task id %s", id);
+        return chunks[id >>> CHUNK_BITS];
+    }
+
+    private Chunk chunkForAllocation(int id) {
+        int chunkIndex = id >>> CHUNK_BITS;
+        Chunk[] current = chunks;
+        if (chunkIndex >= current.length) {
+            Chunk[] grown = Arrays.copyOf(current, Math.max(chunkIndex + 1, current.length * 2));
+            for (int i = current.length; i < grown.length; i++) {
+                grown[i] = new Chunk();
+            }
+            chunks = grown;
+            current = grown;
+        }
+        return current[chunkIndex];
+    }
+
+    private static final class Chunk {
+        private final AtomicLongArray start = new AtomicLongArray(CHUNK_SIZE);
+        private final AtomicLongArray finish = new AtomicLongArray(CHUNK_SIZE);
+        private final byte[] status = new byte[CHUNK_SIZE];
+        private final int[] projects = new int[CHUNK_SIZE];
+        private final int[] workers = new int[CHUNK_SIZE];
+        private final String[] paths = new String[CHUNK_SIZE];
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Test duration summaries for a test task, overall and per test class.
+ */
+@Value
+public class TestSuiteSummary {
+    @NonNull
+    private TestSummary suite;
+
+    @NonNull
+    private List<TestSummary> classes;
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Duration distribution and result counts of a group of tests.
+ */
+@Value
+public class TestSummary {
+    public static TestSummary create(String name, DurationHistogram durations, long successCount, long failureCount, long skippedCount) {
+        checkNotNull(name);
+        checkNotNull(durations);
+        return new TestSummary(name, durations.getCount(), successCount, failureCount, skippedCount, durations.getTotal(),
+                durations.getPercentile(50), durations.getPercentile(90), durations.getPercentile(99), durations.getMax());
+    }
+
+    @NonNull
+    private String name;
+
+    private long testCount;
+
+    private long successCount;
+
+    private long failureCount;
+
+    private long skippedCount;
+
+    private long elapsedTime;
+
+    private long p50;
+
+    private long p90;
+
+    private long p99;
+
+    private long max;
+}
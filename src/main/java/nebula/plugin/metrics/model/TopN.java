@@ -0,0 +1,77 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the largest elements offered to it, according to a comparator, in constant memory.
+ * <p>
+ * Elements are held in a min-heap bounded to the limit, so offering an element that doesn't make the cut is a single
+ * comparison against the smallest element kept.
+ */
+public final class TopN<T> {
+    private final int limit;
+    private final Comparator<? super T> comparator;
+    private final PriorityQueue<T> heap;
+
+    public TopN(int limit, Comparator<? super T> comparator) {
+        checkArgument(limit >= 0, "limit must not be negative");
+        this.limit = limit;
+        this.comparator = checkNotNull(comparator);
+        this.heap = new PriorityQueue<>(Math.max(1, limit), comparator);
+    }
+
+    /**
+     * Offer an element.
+     *
+     * @return the element that no longer makes the cut as a result, which may be the element offered, or null
+     */
+    public synchronized T offer(T element) {
+        checkNotNull(element);
+        if (heap.size() < limit) {
+            heap.add(element);
+            return null;
+        }
+        T smallest = heap.peek();
+        if (smallest == null || comparator.compare(element, smallest) <= 0) {
+            return element;
+        }
+        heap.poll();
+        heap.add(element);
+        return smallest;
+    }
+
+    /**
+     * Return the elements kept, largest first.
+     */
+    public synchronized List<T> get() {
+        List<T> elements = new ArrayList<>(heap);
+        elements.sort(Collections.reverseOrder(comparator));
+        return elements;
+    }
+
+    public synchronized int size() {
+        return heap.size();
+    }
+}
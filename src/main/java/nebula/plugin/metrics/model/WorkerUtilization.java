@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.model;
+
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * How busy each worker thread was while the build was executing tasks and resolving dependencies.
+ * <p>
+ * Worker time is measured over the window from the first operation starting to the last finishing, so a worker that
+ * only ran at the start of the build is idle for the rest of it.
+ */
+@Value
+public class WorkerUtilization {
+    /**
+     * Maximum number of workers the build was allowed to use.
+     */
+    private int maxWorkers;
+
+    /**
+     * Time from the first operation starting to the last operation finishing.
+     */
+    private long windowTime;
+
+    /**
+     * Workers that ran at least one operation, busiest first.
+     */
+    @NonNull
+    private List<Worker> workers;
+
+    public static WorkerUtilization create(BuildMetrics buildMetrics) {
+        checkNotNull(buildMetrics);
+        Map<String, Accumulator> accumulators = new HashMap<>();
+        long windowStart = Long.MAX_VALUE;
+        long windowFinish = Long.MIN_VALUE;
+
+        TaskTimings timings = buildMetrics.getTaskTimings();
+        for (int id = 0, size = timings.size(); id < size; id++) {
+            if (!timings.isCompleted(id)) {
+                continue;
+            }
+            long start = timings.getStartTime(id);
+            long finish = timings.getFinishTime(id);
+            Accumulator accumulator = accumulators.computeIfAbsent(timings.getWorker(id), name -> new Accumulator());
+            accumulator.intervals.add(start, finish);
+            accumulator.tasks++;
+            windowStart = Math.min(windowStart, start);
+            windowFinish = Math.max(windowFinish, finish);
+        }
+        for (ContinuousOperation resolution : buildMetrics.getDependencySetProfiles()) {
+            if (resolution.getWorker() == null || resolution.getFinishTime() < resolution.getStartTime()) {
+                continue;
+            }
+            Accumulator accumulator = accumulators.computeIfAbsent(resolution.getWorker(), name -> new Accumulator());
+            accumulator.intervals.add(resolution.getStartTime(), resolution.getFinishTime());
+            accumulator.resolutions++;
+            windowStart = Math.min(windowStart, resolution.getStartTime());
+            windowFinish = Math.max(windowFinish, resolution.getFinishTime());
+        }
+
+        int maxWorkers = buildMetrics.getStartParameter().getMaxWorkerCount();
+        if (accumulators.isEmpty()) {
+            return new WorkerUtilization(maxWorkers, 0, new ArrayList<>());
+        }
+        long windowTime = windowFinish - windowStart;
+        List<Worker> workers = new ArrayList<>(accumulators.size());
+        for (Map.Entry<String, Accumulator> entry : accumulators.entrySet()) {
+            Accumulator accumulator = entry.getValue();
+            // a task that resolves dependencies runs both on the same thread, so the time is only counted once
+            long busyTime = accumulator.intervals.covered(windowStart, windowFinish);
+            double utilization = windowTime == 0 ? 0 : (double) busyTime / windowTime;
+            workers.add(new Worker(entry.getKey(), busyTime, windowTime - busyTime, utilization, accumulator.tasks, accumulator.resolutions));
+        }
+        workers.sort(Comparator.comparingLong(Worker::getBusyTime).reversed().thenComparing(Worker::getName));
+        return new WorkerUtilization(maxWorkers, windowTime, workers);
+    }
+
+    /**
+     * Time spent by a single worker thread.
+     */
+    @Value
+    public static class Worker {
+        @NonNull
+        private String name;
+
+        private long busyTime;
+
+        private long idleTime;
+
+        private double utilization;
+
+        private int taskCount;
+
+        private int resolutionCount;
+    }
+
+    private static final class Accumulator {
+        private final Intervals intervals = new Intervals();
+        private int tasks;
+        private int resolutions;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2015-2018 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.collector
+
+import groovy.json.JsonSlurper
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+/**
+ * Tests for {@link ChromeTraceWriter}.
+ */
+class ChromeTraceWriterTest extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def 'operations are written as complete events on a lane per thread'() {
+        given:
+        def file = new File(temporaryFolder.root, 'trace/build.json')
+        def writer = new ChromeTraceWriter(file)
+
+        when:
+        writer.complete(':compileJava', 'task', 1000, 1250)
+        writer.complete(':test', 'task', 1250, 2000)
+        writer.close()
+        def events = new JsonSlurper().parse(file) as List<Map>
+
+        then:
+        events.size() == 3
+        events[0].ph == 'M'
+        events[0].args.name == Thread.currentThread().name
+        events[1] == [name: ':compileJava', cat: 'task', ph: 'X', ts: 1000000, dur: 250000, pid: 1, tid: events[0].tid]
+        events[2].tid == events[1].tid
+    }
+
+    def 'operations are placed on the lane of the thread that ran them'() {
+        given:
+        def file = new File(temporaryFolder.root, 'build.json')
+        def writer = new ChromeTraceWriter(file)
+
+        when:
+        writer.complete(':compileJava', 'task', 1000, 1250, 'worker 1')
+        writer.complete(':test', 'task', 1000, 2000, 'worker 2')
+        writer.complete(':jar', 'task', 1250, 1500, 'worker 1')
+        writer.close()
+        def events = new JsonSlurper().parse(file) as List<Map>
+        def lanes = events.findAll { it.ph == 'M' }.collectEntries { [(it.args.name): it.tid] }
+
+        then:
+        lanes.keySet() == ['worker 1', 'worker 2'] as Set
+        events.find { it.name == ':compileJava' }.tid == lanes['worker 1']
+        events.find { it.name == ':jar' }.tid == lanes['worker 1']
+        events.find { it.name == ':test' }.tid == lanes['worker 2']
+    }
+
+    def 'events are flushed as they are written'() {
+        given:
+        def file = new File(temporaryFolder.root, 'build.json')
+        def writer = new ChromeTraceWriter(file)
+
+        when:
+        writer.complete(':compileJava', 'task', 1000, 1250)
+        def events = new JsonSlurper().parseText(file.text + ']') as List<Map>
+        writer.close()
+
+        then:
+        events*.ph == ['M', 'X']
+    }
+}
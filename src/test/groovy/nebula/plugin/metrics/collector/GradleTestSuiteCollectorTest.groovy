@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2015-2016 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.collector
+
+import com.google.common.base.Supplier
+import nebula.plugin.metrics.MetricsPluginExtension
+import nebula.plugin.metrics.dispatcher.MetricsDispatcher
+import nebula.plugin.metrics.model.Result
+import nebula.plugin.metrics.model.TestSuiteSummary
+import nebula.test.ProjectSpec
+import org.gradle.api.tasks.testing.Test
+import org.gradle.api.tasks.testing.TestDescriptor
+import org.gradle.api.tasks.testing.TestResult
+
+/**
+ * Tests for {@link GradleTestSuiteCollector}.
+ */
+class GradleTestSuiteCollectorTest extends ProjectSpec {
+
+    def 'summarized test results only send failures and the slowest tests individually'() {
+        given:
+        def dispatcher = Mock(MetricsDispatcher)
+        def extension = new MetricsPluginExtension()
+        extension.summarizeTestResults = true
+        extension.slowestTestsRetained = 2
+        def collector = new GradleTestSuiteCollector({ dispatcher } as Supplier<MetricsDispatcher>, project.tasks.create('test', Test), extension)
+        def root = Stub(TestDescriptor) { getParent() >> null }
+
+        when:
+        (1..5).each { collector.afterTest(test('MyTest', "test$it"), result(TestResult.ResultType.SUCCESS, it * 10)) }
+        collector.afterTest(test('OtherTest', 'fails'), result(TestResult.ResultType.FAILURE, 1))
+        collector.afterSuite(root, result(TestResult.ResultType.FAILURE, 0))
+
+        then:
+        1 * dispatcher.test({ it.methodName == 'fails' && it.result.status == Result.ResultStatus.FAILURE })
+        1 * dispatcher.test({ it.methodName == 'test5' })
+        1 * dispatcher.test({ it.methodName == 'test4' })
+        1 * dispatcher.report('testSummary:test', { TestSuiteSummary summary ->
+            summary.suite.testCount == 6 &&
+                    summary.suite.failureCount == 1 &&
+                    summary.suite.max == 50 &&
+                    summary.classes*.name == ['MyTest', 'OtherTest'] &&
+                    summary.classes[0].p50 in 30..31
+        })
+        0 * dispatcher.test(_)
+    }
+
+    def 'every test is sent when test results are not summarized'() {
+        given:
+        def dispatcher = Mock(MetricsDispatcher)
+        def collector = new GradleTestSuiteCollector({ dispatcher } as Supplier<MetricsDispatcher>, project.tasks.create('test', Test))
+
+        when:
+        3.times { collector.afterTest(test('MyTest', "test$it"), result(TestResult.ResultType.SUCCESS, 10)) }
+        collector.afterSuite(Stub(TestDescriptor), result(TestResult.ResultType.SUCCESS, 0))
+
+        then:
+        3 * dispatcher.test(_)
+        0 * dispatcher.report(_, _)
+    }
+
+    private TestDescriptor test(String className, String name) {
+        Stub(TestDescriptor) {
+            getClassName() >> className
+            getName() >> name
+        }
+    }
+
+    private TestResult result(TestResult.ResultType type, long elapsed) {
+        Stub(TestResult) {
+            getResultType() >> type
+            getExceptions() >> (type == TestResult.ResultType.FAILURE ? [new AssertionError('failed')] : [])
+            getStartTime() >> 1000L
+            getEndTime() >> 1000L + elapsed
+        }
+    }
+}
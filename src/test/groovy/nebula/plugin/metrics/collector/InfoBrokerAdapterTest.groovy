@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.collector
+
+import org.gradle.api.Plugin
+import org.gradle.api.Project
+import spock.lang.Specification
+
+/**
+ * Tests for {@link InfoBrokerAdapter}.
+ */
+class InfoBrokerAdapterTest extends Specification {
+    def 'manifest is built once and shared by the scm and ci tools'() {
+        given:
+        def plugin = new FakeInfoBrokerPlugin()
+        def collector = new GradleInfoCollector(plugin)
+
+        when:
+        def scm = collector.getSCM()
+        def ci = collector.getCI()
+
+        then:
+        plugin.manifestBuilds == 1
+        scm.generic.origin == 'git@github.com:nebula-plugins/gradle-metrics-plugin.git'
+        ci.generic.build == '42'
+    }
+
+    def 'reports are read from the plugin each time'() {
+        given:
+        def plugin = new FakeInfoBrokerPlugin()
+        def adapter = InfoBrokerAdapter.forPlugin(plugin)
+
+        when:
+        adapter.reports
+        def reports = adapter.reports
+
+        then:
+        plugin.reportBuilds == 2
+        reports == [report: 'value']
+    }
+
+    def 'absent plugin and missing methods return empty maps'() {
+        expect:
+        !InfoBrokerAdapter.forPlugin(null).present
+        InfoBrokerAdapter.forPlugin(null).manifest.isEmpty()
+        InfoBrokerAdapter.forPlugin(null).reports.isEmpty()
+        InfoBrokerAdapter.forPlugin(new OtherPlugin()).present
+        InfoBrokerAdapter.forPlugin(new OtherPlugin()).manifest.isEmpty()
+        InfoBrokerAdapter.forPlugin(new OtherPlugin()).reports.isEmpty()
+    }
+
+    static class FakeInfoBrokerPlugin implements Plugin<Project> {
+        int manifestBuilds
+        int reportBuilds
+
+        @Override
+        void apply(Project project) {
+        }
+
+        Map<String, String> buildManifest() {
+            manifestBuilds++
+            ['Module-Origin': 'git@github.com:nebula-plugins/gradle-metrics-plugin.git', 'Build-Number': '42']
+        }
+
+        Map<String, Object> buildReports() {
+            reportBuilds++
+            [report: 'value']
+        }
+    }
+
+    static class OtherPlugin implements Plugin<Project> {
+        @Override
+        void apply(Project project) {
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher
+
+import com.google.common.base.Optional
+import groovy.json.JsonSlurper
+import nebula.plugin.metrics.MetricsPluginExtension
+import nebula.plugin.metrics.model.Project
+import nebula.plugin.metrics.model.Result
+import nebula.plugin.metrics.model.Task
+import nebula.plugin.metrics.model.Test
+import org.joda.time.DateTime
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Tests for {@link AbstractMetricsDispatcher}.
+ */
+class AbstractMetricsDispatcherTest extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def 'test results are accumulated on the build document by default'() {
+        given:
+        def dispatcher = new RecordingMetricsDispatcher(new MetricsPluginExtension())
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        3.times { dispatcher.test(createTest(it)) }
+        dispatcher.stopAsync().awaitTerminated()
+
+        then:
+        dispatcher.bulk.isEmpty()
+        dispatcher.indexed.last().contains('"testCount":3')
+        dispatcher.indexed.last().contains('"methodName":"test2"')
+    }
+
+    def 'test results are streamed in batches when enabled'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.streamTestResults = true
+        extension.testResultsBatchSize = 2
+        def dispatcher = new RecordingMetricsDispatcher(extension)
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        5.times { dispatcher.test(createTest(it)) }
+        dispatcher.stopAsync().awaitTerminated()
+
+        then:
+        dispatcher.bulk*.size() == [2, 2, 1]
+        dispatcher.calls == ['index', 'bulk', 'bulk', 'bulk', 'index']
+        dispatcher.bulk.flatten().every { it.contains('"buildId":"build-1"') }
+        dispatcher.indexed.last().contains('"testCount":5')
+        !dispatcher.indexed.last().contains('"methodName"')
+    }
+
+    def 'task results are streamed in batches when enabled'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.streamTaskResults = true
+        extension.bulkMaxDocuments = 10
+        def dispatcher = new RecordingMetricsDispatcher(extension)
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        3.times { dispatcher.task(new Task(":task$it", Result.success(), new DateTime(it), 5)) }
+        dispatcher.stopAsync().awaitTerminated()
+
+        then:
+        dispatcher.bulk*.size() == [3]
+        dispatcher.indexed.last().contains('"taskCount":3')
+        dispatcher.indexed.last().contains('"tasksElapsedTime":15')
+    }
+
+    def 'only changed properties are sent once the build has been indexed when incremental updates are enabled'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.incrementalBuildUpdates = true
+        def dispatcher = new RecordingMetricsDispatcher(extension)
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        dispatcher.result(Result.success())
+        dispatcher.stopAsync().awaitTerminated()
+
+        then:
+        dispatcher.indexed.size() == 1
+        dispatcher.updates == ['{"set":{"result":{"status":"success"}},"append":{}}']
+    }
+
+    def 'only new tasks are appended to the build once it has been indexed when incremental updates are enabled'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.incrementalBuildUpdates = true
+        def dispatcher = new RecordingMetricsDispatcher(extension)
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        dispatcher.task(new Task(':task0', Result.success(), new DateTime(0), 5))
+        dispatcher.started(new Project('project', '1.0'))
+        dispatcher.task(new Task(':task1', Result.success(), new DateTime(1), 5))
+        dispatcher.stopAsync().awaitTerminated()
+        def updates = dispatcher.updates.collect { new JsonSlurper().parseText(it) }
+
+        then:
+        dispatcher.indexed.size() == 1
+        updates.size() == 2
+        updates[0].set.tasks*.description == [':task0']
+        updates[1].set.keySet() == ['taskCount', 'tasksElapsedTime'] as Set
+        updates[1].set.taskCount == 2
+        updates[1].append.tasks*.description == [':task1']
+    }
+
+    def 'changes are sent with the next update when an update fails'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.incrementalBuildUpdates = true
+        extension.failOnError = false
+        def failures = new AtomicInteger(1)
+        def dispatcher = new RecordingMetricsDispatcher(extension) {
+            @Override
+            protected boolean update(String indexName, String type, String source, String id) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException('unavailable')
+                }
+                return super.update(indexName, type, source, id)
+            }
+        }
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        dispatcher.result(Result.success())
+        dispatcher.started(new Project('project', '1.0'))
+        dispatcher.stopAsync().awaitTerminated()
+        def updates = dispatcher.updates.collect { new JsonSlurper().parseText(it) }
+
+        then:
+        updates.size() == 1
+        updates[0].set.keySet() == ['result', 'project'] as Set
+    }
+
+    def 'full document is indexed when an update is rejected'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.incrementalBuildUpdates = true
+        def rejected = []
+        def dispatcher = new RecordingMetricsDispatcher(extension) {
+            @Override
+            protected boolean update(String indexName, String type, String source, String id) {
+                rejected << source
+                return false
+            }
+        }
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        dispatcher.result(Result.success())
+        dispatcher.stopAsync().awaitTerminated()
+
+        then:
+        rejected.size() == 1
+        dispatcher.indexed.size() == 2
+        dispatcher.indexed.last().contains('"status":"success"')
+    }
+
+    def 'build document is passed unserialized to dispatchers when streaming serialization is enabled'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.streamingSerialization = true
+        def documents = []
+        def dispatcher = new RecordingMetricsDispatcher(extension) {
+            @Override
+            protected String indexDocument(String indexName, String type, Object document, Optional<String> id) {
+                documents << document
+                return 'build-1'
+            }
+        }
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        dispatcher.stopAsync().awaitTerminated()
+
+        then:
+        dispatcher.indexed.isEmpty()
+        documents.size() == 1
+        !(documents[0] instanceof String)
+    }
+
+    def 'build document streamed to dispatchers is a snapshot that later changes do not affect'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.streamingSerialization = true
+        def documents = []
+        RecordingMetricsDispatcher dispatcher
+        dispatcher = new RecordingMetricsDispatcher(extension) {
+            @Override
+            protected String indexDocument(String indexName, String type, Object document, Optional<String> id) {
+                // a task finishing while the document is being sent
+                dispatcher.task(new Task(':late', Result.success(), new DateTime(0), 5))
+                documents << mapper.writeValueAsString(document)
+                return 'build-1'
+            }
+        }
+        dispatcher.startAsync().awaitRunning()
+
+        when:
+        dispatcher.task(new Task(':early', Result.success(), new DateTime(0), 5))
+        dispatcher.stopAsync().awaitTerminated()
+
+        then:
+        documents.size() == 2
+        // the task that finished while the first document was sent is included, but not the one finishing now
+        documents[1].contains('"taskCount":2')
+        documents[1].contains('":early"')
+        documents[1].count('":late"') == 1
+    }
+
+    def 'documents sent at shutdown are spooled and sent by the next build when spooling is enabled'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.spool = true
+        extension.spoolDirectory = temporaryFolder.root
+        extension.streamTestResults = true
+        def first = new RecordingMetricsDispatcher(extension)
+        first.startAsync().awaitRunning()
+
+        when:
+        2.times { first.test(createTest(it)) }
+        first.stopAsync().awaitTerminated()
+        def second = new RecordingMetricsDispatcher(extension)
+        second.startAsync().awaitRunning()
+
+        then:
+        first.indexed.size() == 1
+        first.bulk.isEmpty()
+        second.indexed.size() == 2
+        second.indexed[1].contains('"testCount":2')
+        second.bulk*.size() == [2]
+    }
+
+    def 'spooled documents are only sent to the destination they were spooled for'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.spool = true
+        extension.spoolDirectory = temporaryFolder.root
+        extension.streamTestResults = true
+        def first = new RecordingMetricsDispatcher(extension, 'http://first')
+        first.startAsync().awaitRunning()
+
+        when:
+        first.test(createTest(0))
+        first.stopAsync().awaitTerminated()
+        def other = new RecordingMetricsDispatcher(extension, 'http://other')
+        other.startAsync().awaitRunning()
+        def same = new RecordingMetricsDispatcher(extension, 'http://first')
+        same.startAsync().awaitRunning()
+
+        then:
+        other.indexed.size() == 1
+        other.bulk.isEmpty()
+        same.indexed.size() == 2
+        same.bulk*.size() == [1]
+    }
+
+    def 'dispatchers share an object mapper but not a build document'() {
+        given:
+        def first = new RecordingMetricsDispatcher(new MetricsPluginExtension())
+        def second = new RecordingMetricsDispatcher(new MetricsPluginExtension())
+
+        when:
+        first.startAsync().awaitRunning()
+        first.result(Result.failure(new RuntimeException('boom')))
+        first.stopAsync().awaitTerminated()
+        second.startAsync().awaitRunning()
+        second.stopAsync().awaitTerminated()
+
+        then:
+        first.mapper.is(second.mapper)
+        first.indexed.last().contains('"status":"failure"')
+        !second.indexed.last().contains('"status":"failure"')
+    }
+
+    private static Test createTest(int i) {
+        new Test("test$i", 'MyTest', 'test', Result.success(), new DateTime(i), 10)
+    }
+
+    static class RecordingMetricsDispatcher extends AbstractMetricsDispatcher {
+        final List<String> indexed = []
+        final List<Collection<String>> bulk = []
+        final List<String> updates = []
+        final List<String> calls = []
+        final String endpoint
+
+        RecordingMetricsDispatcher(MetricsPluginExtension extension, String endpoint = 'http://localhost') {
+            super(extension, false)
+            this.endpoint = endpoint
+        }
+
+        @Override
+        protected String getSpoolDestination() {
+            return super.getSpoolDestination() + '\n' + endpoint
+        }
+
+        @Override
+        protected String getCollectionName() {
+            return 'collection'
+        }
+
+        @Override
+        protected String index(String indexName, String type, String source, Optional<String> id) {
+            indexed << source
+            calls << 'index'
+            return 'build-1'
+        }
+
+        @Override
+        protected boolean update(String indexName, String type, String source, String id) {
+            updates << source
+            return true
+        }
+
+        @Override
+        protected void bulkIndex(String indexName, String type, Collection<String> sources) {
+            bulk << new ArrayList<>(sources)
+            calls << 'bulk'
+        }
+    }
+}
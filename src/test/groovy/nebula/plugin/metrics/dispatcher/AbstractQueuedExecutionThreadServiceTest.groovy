@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package nebula.plugin.metrics.dispatcher
+
+import nebula.plugin.metrics.MetricsPluginExtension.QueueOverflowPolicy
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for {@link AbstractQueuedExecutionThreadService}.
+ */
+class AbstractQueuedExecutionThreadServiceTest extends Specification {
+
+    def 'queued actions are executed in order before the service stops'() {
+        given:
+        def service = new RecordingService()
+        service.startAsync().awaitRunning()
+
+        when:
+        3.times { service.queue(it) }
+        service.stopAsync().awaitTerminated(5, TimeUnit.SECONDS)
+
+        then:
+        service.executed == [0, 1, 2]
+        service.queueStatistics.executed == 3
+        service.queueStatistics.depth == 0
+    }
+
+    def 'service thread is woken as soon as an action is queued'() {
+        given:
+        def latch = new CountDownLatch(1)
+        def service = new RecordingService() {
+            @Override
+            protected void execute(Integer action) {
+                latch.countDown()
+            }
+        }
+        service.startAsync().awaitRunning()
+
+        when:
+        service.queue(1)
+
+        then:
+        latch.await(5, TimeUnit.SECONDS)
+
+        cleanup:
+        service.stopAsync().awaitTerminated(5, TimeUnit.SECONDS)
+    }
+
+    @Unroll
+    def 'actions queued while the queue is full are handled by the #policy policy'() {
+        given:
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def service = new RecordingService(2, policy) {
+            @Override
+            protected void execute(Integer action) {
+                if (action == 0) {
+                    started.countDown()
+                    release.await(5, TimeUnit.SECONDS)
+                }
+                super.execute(action)
+            }
+        }
+        service.startAsync().awaitRunning()
+
+        when:
+        service.queue(0)
+        started.await(5, TimeUnit.SECONDS)
+        (1..4).each { service.queue(it) }
+        release.countDown()
+        service.stopAsync().awaitTerminated(5, TimeUnit.SECONDS)
+
+        then:
+        service.executed == executed
+        service.queueStatistics.dropped == 2
+
+        where:
+        policy                          | executed
+        QueueOverflowPolicy.DROP_NEWEST | [0, 1, 2]
+        QueueOverflowPolicy.DROP_OLDEST | [0, 3, 4]
+    }
+
+    def 'actions that are not droppable are kept when the queue is full'() {
+        given:
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def service = new RecordingService(2, QueueOverflowPolicy.DROP_OLDEST) {
+            @Override
+            protected void execute(Integer action) {
+                if (action == 0) {
+                    started.countDown()
+                    release.await(5, TimeUnit.SECONDS)
+                }
+                super.execute(action)
+            }
+        }
+        service.startAsync().awaitRunning()
+
+        when:
+        service.queue(0)
+        started.await(5, TimeUnit.SECONDS)
+        // a control action, like the build model being indexed, with results queued behind it
+        service.queue(-1)
+        (2..4).each { service.queue(it) }
+        release.countDown()
+        service.stopAsync().awaitTerminated(5, TimeUnit.SECONDS)
+
+        then:
+        service.executed == [0, -1, 4]
+        service.queueStatistics.dropped == 2
+    }
+
+    def 'actions queued on the service thread while the queue is full do not wait for room when starting up'() {
+        given:
+        def service = new RecordingService(1, QueueOverflowPolicy.BLOCK) {
+            @Override
+            protected void startUp() {
+                3.times { queue(it) }
+            }
+        }
+
+        when:
+        service.startAsync().awaitRunning(5, TimeUnit.SECONDS)
+        service.stopAsync().awaitTerminated(5, TimeUnit.SECONDS)
+
+        then:
+        service.executed.sort() == [0, 1, 2]
+    }
+
+    static class RecordingService extends AbstractQueuedExecutionThreadService<Integer> {
+        final List<Integer> executed = []
+
+        RecordingService() {
+            super(true, false)
+        }
+
+        RecordingService(int capacity, QueueOverflowPolicy policy) {
+            super(true, false, capacity, policy)
+        }
+
+        @Override
+        protected void execute(Integer action) {
+            executed << action
+        }
+
+        @Override
+        protected boolean isDroppable(Integer action) {
+            // negative actions stand in for control actions, which are never dropped
+            return action >= 0
+        }
+    }
+}
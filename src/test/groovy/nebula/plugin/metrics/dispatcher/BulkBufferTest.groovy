@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher
+
+import spock.lang.Specification
+
+/**
+ * Tests for {@link BulkBuffer}.
+ */
+class BulkBufferTest extends Specification {
+
+    def 'batch is due when it reaches the maximum number of documents'() {
+        given:
+        def buffer = new BulkBuffer(2, 1024, 1000)
+
+        expect:
+        buffer.add('test', '{"a":1}', 0) == null
+        buffer.add('task', '{"b":1}', 0) == null
+        buffer.add('test', '{"a":2}', 0) == ['{"a":1}', '{"a":2}']
+        buffer.drainAll() == [task: ['{"b":1}']]
+    }
+
+    def 'batch is due when it reaches the maximum size'() {
+        given:
+        def buffer = new BulkBuffer(100, 10, 1000)
+
+        expect:
+        buffer.add('test', '{"a":1}', 0) == null
+        buffer.add('test', '{"a":2}', 0) == ['{"a":1}', '{"a":2}']
+    }
+
+    def 'batches are drained once they exceed the linger time'() {
+        given:
+        def buffer = new BulkBuffer(100, 1024, 1000)
+        buffer.add('test', '{"a":1}', 0)
+        buffer.add('task', '{"b":1}', 500)
+
+        expect:
+        buffer.drainExpired(999).isEmpty()
+        buffer.drainExpired(1000) == [test: ['{"a":1}']]
+        buffer.drainExpired(1500) == [task: ['{"b":1}']]
+        buffer.drainAll().isEmpty()
+    }
+
+    def 'delay until expiry is measured from the oldest batch'() {
+        given:
+        def buffer = new BulkBuffer(100, 1024, 1000)
+
+        expect:
+        buffer.millisUntilExpiry(0) == Long.MAX_VALUE
+
+        when:
+        buffer.add('test', '{"a":1}', 100)
+        buffer.add('task', '{"b":1}', 500)
+
+        then:
+        buffer.millisUntilExpiry(600) == 500
+        buffer.millisUntilExpiry(1200) == 0
+    }
+}
@@ -91,6 +91,81 @@ class HttpESMetricsDispatcherTest extends Specification {
         where: fullUriPresent << [true, false]
     }
 
+    def "clients are shared by settings without keeping the credentials, and unused clients are shut down when the settings change"() {
+        given:
+        HttpESMetricsDispatcher.CLIENTS.clear()
+        def dispatcher = { String password ->
+            MetricsPluginExtension metrics = new MetricsPluginExtension()
+            metrics.setHostname('localhost')
+            metrics.setHttpPort(esPort)
+            metrics.setEsBasicAuthUsername(user)
+            metrics.setEsBasicAuthPassword(password)
+            new HttpESMetricsDispatcher(metrics)
+        }
+        def first = dispatcher('secret')
+        def second = dispatcher('secret')
+        def rotated = dispatcher('rotated')
+
+        when:
+        first.startUpClient()
+        second.startUpClient()
+        first.shutDownClient()
+        second.shutDownClient()
+        rotated.startUpClient()
+
+        then:
+        first.client.is(second.client)
+        !rotated.client.is(first.client)
+        HttpESMetricsDispatcher.CLIENTS.size() == 1
+        HttpESMetricsDispatcher.CLIENTS.keySet().every { !it.contains('secret') && !it.contains('rotated') }
+
+        cleanup:
+        rotated?.shutDownClient()
+        HttpESMetricsDispatcher.CLIENTS.values()*.client*.shutdownClient()
+        HttpESMetricsDispatcher.CLIENTS.clear()
+    }
+
+    @Unroll
+    def "partial updates are retried with an inline script, and rejected when the cluster can't run them: #inlineAccepted"(boolean inlineAccepted) {
+        given: 'a mock ES instance that only accepts update scripts under inline, if at all'
+        def port = 1339
+        def requests = Collections.synchronizedList([])
+        HttpServer mockEsInstance = HttpServer.create(new InetSocketAddress(port), 0)
+        mockEsInstance.createContext(context, new HttpHandler() {
+            @Override
+            void handle(HttpExchange t) throws IOException {
+                def body = t.requestBody.text
+                requests << body
+                def accepted = inlineAccepted && body.contains('"inline"')
+                def response = accepted ? '{"_id": "build"}' : '{"error": "unknown key [source]", "status": 400}'
+                t.sendResponseHeaders(accepted ? 200 : 400, response.length())
+                t.responseBody.withStream { it.write(response.bytes) }
+            }
+        })
+        mockEsInstance.start()
+        MetricsPluginExtension metrics = new MetricsPluginExtension()
+        metrics.setFullURI("http://localhost:$port")
+        HttpESMetricsDispatcher dispatcher = new HttpESMetricsDispatcher(metrics)
+        dispatcher.startUpClient()
+
+        when:
+        def first = dispatcher.update('index', 'build', '{"set":{},"append":{}}', 'build')
+        def second = dispatcher.update('index', 'build', '{"set":{},"append":{}}', 'build')
+
+        then:
+        first == inlineAccepted
+        second == inlineAccepted
+        requests.size() == (inlineAccepted ? 3 : 2)
+        requests[0].contains('"source"')
+        requests[1].contains('"inline"')
+
+        cleanup:
+        dispatcher?.shutDownClient()
+        mockEsInstance?.stop(0)
+
+        where: inlineAccepted << [true, false]
+    }
+
     private static HttpServer createMockEsInstance(boolean basicAuth, int port = esPort) {
         HttpServer mockEsInstance = HttpServer.create(new InetSocketAddress(port), 0)
         HttpContext rootCtx = mockEsInstance.createContext(context, buildEsHttpHandler())
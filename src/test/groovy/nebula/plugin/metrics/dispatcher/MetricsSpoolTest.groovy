@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package nebula.plugin.metrics.dispatcher
+
+import com.google.common.base.Optional
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+/**
+ * Tests for {@link MetricsSpool}.
+ */
+class MetricsSpoolTest extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def 'appended records are drained once'() {
+        given:
+        def spool = new MetricsSpool(temporaryFolder.root, 1024)
+
+        when:
+        spool.append([record('build', 'build-1', '{"a":1}'), record('test', null, '{"b":"é"}')])
+        spool.append([record('test', null, '{"c":3}')])
+        def records = spool.drain()
+
+        then:
+        records*.type == ['build', 'test', 'test']
+        records*.buildId == [Optional.of('build-1'), Optional.absent(), Optional.absent()]
+        records*.source == ['{"a":1}', '{"b":"é"}', '{"c":3}']
+        spool.drain().isEmpty()
+    }
+
+    def 'records are discarded once the spool is full'() {
+        given:
+        def spool = new MetricsSpool(temporaryFolder.root, 64)
+
+        expect:
+        spool.append([record('test', null, '{"a":1}')])
+        !spool.append([record('test', null, 'x' * 64)])
+        spool.drain().size() == 1
+    }
+
+    def 'partially written record is skipped'() {
+        given:
+        def spool = new MetricsSpool(temporaryFolder.root, 1024)
+        spool.append([record('test', null, '{"a":1}')])
+        new File(temporaryFolder.root, 'metrics.spool') << ([0, 0, 0, 100, 1, 2] as byte[])
+
+        expect:
+        spool.drain()*.source == ['{"a":1}']
+    }
+
+    def 'drain of a missing directory is empty'() {
+        expect:
+        new MetricsSpool(new File(temporaryFolder.root, 'missing'), 1024).drain().isEmpty()
+    }
+
+    private static MetricsSpool.Record record(String type, String buildId, String source) {
+        new MetricsSpool.Record('metrics', type, Optional.fromNullable(buildId), source)
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package nebula.plugin.metrics.dispatcher
+
+import nebula.plugin.metrics.MetricsPluginExtension
+import org.apache.http.client.entity.GzipCompressingEntity
+import org.apache.http.entity.ContentType
+import org.apache.http.entity.StringEntity
+import spock.lang.Specification
+
+import java.util.zip.GZIPInputStream
+
+/**
+ * Tests for {@link RequestCompression}.
+ */
+class RequestCompressionTest extends Specification {
+
+    def 'entities are not compressed by default'() {
+        given:
+        def entity = new StringEntity('x' * 4096, ContentType.APPLICATION_JSON)
+
+        expect:
+        new RequestCompression(new MetricsPluginExtension()).compress(entity).is(entity)
+    }
+
+    def 'entities below the threshold are not compressed'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.compression = 'gzip'
+        extension.compressionThreshold = 100
+        def compression = new RequestCompression(extension)
+
+        expect:
+        !(compression.compress(new StringEntity('x' * 99)) instanceof GzipCompressingEntity)
+        compression.compress(new StringEntity('x' * 100)) instanceof GzipCompressingEntity
+    }
+
+    def 'compressed entities round trip'() {
+        given:
+        def extension = new MetricsPluginExtension()
+        extension.compression = 'gzip'
+        extension.compressionThreshold = 0
+        def out = new ByteArrayOutputStream()
+
+        when:
+        def compressed = new RequestCompression(extension).compress(new StringEntity('{"a":1}', ContentType.APPLICATION_JSON))
+        compressed.writeTo(out)
+
+        then:
+        compressed.contentEncoding.value == 'gzip'
+        new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).text == '{"a":1}'
+    }
+}
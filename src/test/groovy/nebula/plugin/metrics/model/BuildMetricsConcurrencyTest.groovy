@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2015-2019 Netflix, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+package nebula.plugin.metrics.model
+
+import org.gradle.StartParameter
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Stress tests for {@link BuildMetrics} and {@link TaskTimings} under concurrent access, as in a parallel build.
+ */
+class BuildMetricsConcurrencyTest extends Specification {
+    private static final int THREADS = 16
+    private static final int PROJECTS = 8
+    private static final int TASKS_PER_THREAD = 2000
+
+    def 'profiles are created once when requested from many threads'() {
+        given:
+        def metrics = new BuildMetrics(new StartParameter())
+        def executor = Executors.newFixedThreadPool(THREADS)
+        def start = new CountDownLatch(1)
+        def ids = Collections.synchronizedList([])
+        def timings = metrics.taskTimings
+
+        when:
+        def futures = (0..<THREADS).collect { thread ->
+            executor.submit {
+                start.await()
+                TASKS_PER_THREAD.times { i ->
+                    // every thread records every task, so each id is contended
+                    def projectPath = ":project${i % PROJECTS}"
+                    metrics.getProjectProfile(projectPath)
+                    def id = timings.id(projectPath, "$projectPath:task$i")
+                    timings.started(id, i)
+                    timings.completed(id, i + 1, null)
+                    ids << id
+                    metrics.getDependencySetProfile("$projectPath:configuration${i % 10}")
+                    metrics.getTransformProfile("transform${i % 10}").start(i).setFinish(i + 1)
+                }
+            }
+        }
+        start.countDown()
+        futures*.get(1, TimeUnit.MINUTES)
+        executor.shutdown()
+
+        then:
+        metrics.projects.size() == PROJECTS
+        timings.size() == TASKS_PER_THREAD
+        ids.toSet() == (0..<TASKS_PER_THREAD).toSet()
+        timings.taskIdsByProject.values().sum { it.length } == TASKS_PER_THREAD
+        metrics.projects.sum { it.elapsedTime } == TASKS_PER_THREAD
+        metrics.elapsedTotalExecutionTime == TASKS_PER_THREAD
+        metrics.dependencySets.operations.size() == 40 // every combination of project and configuration
+        metrics.transforms.operations.sum { it.elapsedTime } == THREADS * TASKS_PER_THREAD
+    }
+}
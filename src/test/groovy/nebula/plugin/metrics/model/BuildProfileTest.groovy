@@ -17,7 +17,6 @@ package nebula.plugin.metrics.model
 
 
 import org.gradle.StartParameter
-import org.gradle.api.tasks.TaskState
 import spock.lang.Specification
 import spock.lang.Subject
 
@@ -55,17 +54,54 @@ class BuildProfileTest extends Specification {
         profile.projectConfiguration.operations == [b, c, a, d]
     }
 
+    def "provides the slowest configuration and dependency set profiles"() {
+        given:
+        def a = profile.getProjectProfile("a").configurationOperation.setStart(100).setFinish(200)
+        def b = profile.getProjectProfile("b").configurationOperation.setStart(200).setFinish(500)
+        profile.getProjectProfile("c").configurationOperation.setStart(500).setFinish(550)
+        def d = profile.getProjectProfile("d").configurationOperation.setStart(800).setFinish(900)
+        def x = profile.getDependencySetProfile("x").setStart(100).setFinish(300)
+        profile.getDependencySetProfile("y").setStart(300).setFinish(301)
+
+        expect:
+        profile.getSlowestProjectConfigurations(3) == [b, a, d]
+        profile.getSlowestDependencySets(1) == [x]
+    }
+
     def "provides sorted project profiles"() {
         given:
-        profile.getProjectProfile("a").getTaskProfile("a:x").completed(Stub(TaskState)).setStart(100).setFinish(300)
-        profile.getProjectProfile("b").getTaskProfile("b:x").completed(Stub(TaskState)).setStart(300).setFinish(300)
-        profile.getProjectProfile("c").getTaskProfile("c:x").completed(Stub(TaskState)).setStart(300).setFinish(300)
-        profile.getProjectProfile("d").getTaskProfile("d:x").completed(Stub(TaskState)).setStart(301).setFinish(302)
+        def timings = profile.taskTimings
+        [["a", 100, 300], ["b", 300, 300], ["c", 300, 300], ["d", 301, 302]].each { projectPath, start, finish ->
+            profile.getProjectProfile(projectPath)
+            def id = timings.id(projectPath, "$projectPath:x")
+            timings.started(id, start)
+            timings.completed(id, finish, null)
+        }
 
         expect:
         profile.projects == [profile.getProjectProfile("a"), profile.getProjectProfile("d"), profile.getProjectProfile("b"), profile.getProjectProfile("c")]
     }
 
+    def "unaccounted time counts gaps between measured operations once"() {
+        given:
+        profile.profilingStarted = 1000
+        profile.buildStarted = 1100
+        profile.settingsEvaluated = 1200
+        profile.projectsLoaded = 1300
+        profile.getProjectProfile(":").configurationOperation.setStart(1300).setFinish(1400)
+        profile.getDependencySetProfile("compile").setStart(1450).setFinish(1500)
+        def timings = profile.taskTimings
+        [[":a", 1500, 1700], [":b", 1550, 1650], [":c", 1800, 1900]].each { path, start, finish ->
+            def id = timings.id(":", path)
+            timings.started(id, start)
+            timings.completed(id, finish, null)
+        }
+        profile.buildFinished = 2000
+
+        expect:
+        profile.elapsedUnaccounted == 250
+    }
+
     def "contains build description"() {
         given:
         def param = new StartParameter()
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import spock.lang.Specification
+
+class DurationHistogramTest extends Specification {
+
+    def "reports percentiles within the bucket precision"() {
+        def histogram = new DurationHistogram()
+
+        when:
+        (1..1000).each { histogram.record(it) }
+
+        then:
+        histogram.count == 1000
+        histogram.total == 500500
+        histogram.max == 1000
+        Math.abs(histogram.getPercentile(50) - 500) <= 500 * 0.125
+        Math.abs(histogram.getPercentile(99) - 990) <= 990 * 0.125
+        histogram.getPercentile(100) == 1000
+    }
+
+    def "small durations are exact"() {
+        def histogram = new DurationHistogram()
+
+        when:
+        [3, 7, 11, 15].each { histogram.record(it) }
+
+        then:
+        histogram.getPercentile(50) == 7
+        histogram.getPercentile(75) == 11
+    }
+
+    def "empty histogram reports zero"() {
+        expect:
+        new DurationHistogram().getPercentile(99) == 0
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import spock.lang.Specification
+
+class ExecutionAnalysisTest extends Specification {
+
+    def "analyses overlapping task execution"() {
+        def timings = new TaskTimings()
+        // :a runs alone, then :b and :c overlap, then :d waits for :c after a gap
+        record(timings, ':a', 0, 10)
+        record(timings, ':b', 10, 20)
+        record(timings, ':c', 10, 30)
+        record(timings, ':d', 40, 50)
+
+        when:
+        def analysis = ExecutionAnalysis.create(timings)
+
+        then:
+        analysis.wallClockTime == 50
+        analysis.busyTime == 40
+        analysis.idleTime == 10
+        analysis.totalTaskTime == 50
+        analysis.maxConcurrency == 2
+        analysis.parallelism == 1.25d
+        analysis.workerUtilization == 0.5d
+        analysis.criticalPath == [':a', ':c', ':d']
+        analysis.criticalPathTime == 40
+    }
+
+    def "ignores tasks that have not completed"() {
+        def timings = new TaskTimings()
+        timings.started(timings.id(':', ':a'), 0)
+
+        expect:
+        ExecutionAnalysis.create(timings).criticalPath.isEmpty()
+        ExecutionAnalysis.create(timings).wallClockTime == 0
+    }
+
+    private static void record(TaskTimings timings, String path, long start, long finish) {
+        def id = timings.id(':', path)
+        timings.started(id, start)
+        timings.completed(id, finish, null)
+    }
+}
@@ -19,7 +19,12 @@ package nebula.plugin.metrics.model
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import org.junit.Rule
+import org.gradle.StartParameter
+import org.gradle.api.invocation.Gradle
+import org.gradle.api.plugins.ExtensionContainer
+import org.gradle.api.plugins.ExtraPropertiesExtension
 import org.junit.contrib.java.lang.system.ProvideSystemProperty
+import org.junit.rules.TemporaryFolder
 import spock.lang.Specification
 import spock.lang.Unroll
 
@@ -30,6 +35,8 @@ class InfoTest extends Specification {
 
     @Rule public final ProvideSystemProperty nebulaFeatureSystemProperty = new ProvideSystemProperty("nebula.feature.someOtherFeature.enabled", "true")
 
+    @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder()
+
     def 'environment is json serialized in expected form'() {
         def map = new LinkedHashMap<String, String>()
         map.put("mykey1", "myvalue1")
@@ -105,20 +112,61 @@ class InfoTest extends Specification {
 
     def 'extracts nebula features from system and project properties'() {
         setup:
-        org.gradle.api.Project mockProject = Mock(org.gradle.api.Project)
+        def rootDir = temporaryFolder.newFolder('root')
+        new File(rootDir, 'gradle.properties').text = 'nebula.feature.fromFile.enabled=true\nnebula.feature.someFeature.enabled=false\nmykey3=myvalue3\n'
         def projectProperties = new LinkedHashMap<String, String>()
         projectProperties.put("mykey1", "myvalue1")
         projectProperties.put("nebula.feature.someFeature.enabled", "true")
         projectProperties.put("mykey2", "myvalue2")
+        org.gradle.api.Project mockProject = mockProject(rootDir, projectProperties, ['nebula.feature.fromScript.enabled': true])
         def tool = Mock(Tool)
 
         when:
         def info = Info.create(tool, tool, tool, mockProject)
 
         then:
-        info.nebulaFeatures.find { it.key == 'nebula.feature.someFeature.enabled' }.value
-        info.nebulaFeatures.find { it.key == 'nebula.feature.someOtherFeature.enabled' }.value
+        info.nebulaFeatures.find { it.key == 'nebula.feature.someFeature.enabled' }.value == 'true'
+        info.nebulaFeatures.find { it.key == 'nebula.feature.someOtherFeature.enabled' }.value == 'true'
+        info.nebulaFeatures.find { it.key == 'nebula.feature.fromFile.enabled' }.value == 'true'
+        info.nebulaFeatures.find { it.key == 'nebula.feature.fromScript.enabled' }.value == 'true'
+        !info.nebulaFeatures.find { it.key.startsWith('mykey') }
+
+        0 * mockProject.properties
+    }
+
+    def 'only environment variables and system properties accepted by the filters are captured'() {
+        setup:
+        org.gradle.api.Project mockProject = mockProject(temporaryFolder.newFolder('root'), [:], [:])
+        def tool = Mock(Tool)
+
+        when:
+        def info = Info.create(tool, tool, tool, mockProject, new KeyFilter(['NO_SUCH_VARIABLE'], []), new KeyFilter(['java\\..*'], ['java\\.vm\\..*']))
+
+        then:
+        info.environmentVariables.isEmpty()
+        !info.systemProperties.isEmpty()
+        info.systemProperties.every { it.key.startsWith('java.') && !it.key.startsWith('java.vm.') }
+        info.javaVersion == System.getProperty('java.version')
+    }
 
-        1 * mockProject.properties >> projectProperties
+    private org.gradle.api.Project mockProject(File rootDir, Map<String, String> projectProperties, Map<String, Object> extraProperties) {
+        def startParameter = new StartParameter()
+        startParameter.projectProperties = projectProperties
+        def gradleUserHome = temporaryFolder.newFolder()
+        def gradle = Stub(Gradle) {
+            getStartParameter() >> startParameter
+            getGradleUserHomeDir() >> gradleUserHome
+        }
+        def extra = Stub(ExtraPropertiesExtension) {
+            getProperties() >> extraProperties
+        }
+        def extensions = Stub(ExtensionContainer) {
+            getExtraProperties() >> extra
+        }
+        Mock(org.gradle.api.Project) {
+            getGradle() >> gradle
+            getRootDir() >> rootDir
+            getExtensions() >> extensions
+        }
     }
 }
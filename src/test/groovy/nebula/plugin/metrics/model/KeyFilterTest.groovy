@@ -0,0 +1,36 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import spock.lang.Specification
+
+class KeyFilterTest extends Specification {
+
+    def "accepts keys that are included and not excluded"() {
+        def filter = new KeyFilter(includes, excludes)
+
+        expect:
+        filter.accept(key) == accepted
+
+        where:
+        includes    | excludes     | key          || accepted
+        []          | []           | 'PATH'       || true
+        ['CI_.*']   | []           | 'CI_JOB'     || true
+        ['CI_.*']   | []           | 'PATH'       || false
+        ['CI_.*']   | ['CI_.*KEY'] | 'CI_API_KEY' || false
+        []          | ['LS_.*']    | 'LS_COLORS'  || false
+    }
+}
@@ -15,20 +15,22 @@
  */
 package nebula.plugin.metrics.model
 
-import nebula.plugin.metrics.model.ProjectMetrics
-import org.gradle.api.tasks.TaskState
 import spock.lang.Specification
 
 class ProjectMetricsTest extends Specification {
 
-    def "provides sorted tasks"() {
-        def profile = new ProjectMetrics(":foo")
-        def a = profile.getTaskProfile("foo:a").completed(Stub(TaskState)).setStart(100).setFinish(300)
-        def b = profile.getTaskProfile("foo:b").completed(Stub(TaskState)).setStart(300).setFinish(300)
-        def c = profile.getTaskProfile("foo:c").completed(Stub(TaskState)).setStart(300).setFinish(300)
-        def d = profile.getTaskProfile("foo:d").completed(Stub(TaskState)).setStart(301).setFinish(302)
+    def "elapsed time is the total of the project's task timings"() {
+        given:
+        def timings = new TaskTimings()
+        def profile = new ProjectMetrics(":foo", timings)
+        [[":foo:a", 100, 300], [":foo:b", 300, 300], [":foo:d", 301, 302], [":bar:a", 100, 500]].each { path, start, finish ->
+            def id = timings.id(path.substring(0, path.lastIndexOf(':')), path)
+            timings.started(id, start)
+            timings.completed(id, finish, null)
+        }
 
         expect:
-        profile.tasks.operations == [a, d, b, c]
+        profile.elapsedTime == 201
+        new ProjectMetrics(":baz", timings).elapsedTime == 0
     }
-}
\ No newline at end of file
+}
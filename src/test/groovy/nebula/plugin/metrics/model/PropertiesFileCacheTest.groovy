@@ -0,0 +1,46 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import spock.lang.Specification
+
+class PropertiesFileCacheTest extends Specification {
+    @Rule
+    TemporaryFolder temporaryFolder = new TemporaryFolder()
+
+    def "properties are read again when the file changes"() {
+        def file = temporaryFolder.newFile('gradle.properties')
+        file.text = 'a=1\n'
+
+        when:
+        def first = PropertiesFileCache.get(file)
+        def cached = PropertiesFileCache.get(file)
+        file.text = 'a=1\nb=2\n'
+        def changed = PropertiesFileCache.get(file)
+
+        then:
+        first == [a: '1']
+        cached.is(first)
+        changed == [a: '1', b: '2']
+    }
+
+    def "missing files have no properties"() {
+        expect:
+        PropertiesFileCache.get(new File(temporaryFolder.root, 'missing.properties')).isEmpty()
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import spock.lang.Specification
+
+class SanitizerTest extends Specification {
+    private static final String REGEX = "(?i).*_(TOKEN|KEY|SECRET|PASSWORD)\$"
+
+    def "sanitizes exact keys and keys matching the pattern"() {
+        def sanitizer = new Sanitizer(['mykey1'], REGEX)
+
+        expect:
+        sanitizer.isSanitized('mykey1')
+        sanitizer.isSanitized('MY_TOKEN')
+        !sanitizer.isSanitized('mykey2')
+    }
+
+    def "lists without sensitive keys are not copied"() {
+        def sanitizer = new Sanitizer(['mykey1'], REGEX)
+        def keyValues = [new KeyValue('a', '1'), new KeyValue('b', '2')]
+
+        expect:
+        sanitizer.sanitize(keyValues).is(keyValues)
+    }
+
+    def "sanitized info is not sanitized again"() {
+        def sanitizer = new Sanitizer(['mykey1'], REGEX)
+        def tool = Mock(Tool)
+        def info = Info.create(tool, tool, tool, [MY_SECRET: 'secret'], [mykey1: 'value'], Collections.emptyMap())
+
+        when:
+        def sanitized = sanitizer.sanitize(info)
+
+        then:
+        !info.sanitized
+        sanitized.sanitized
+        sanitized.environmentVariables[0].value == 'SANITIZED'
+        sanitized.systemProperties[0].value == 'SANITIZED'
+        sanitizer.sanitize(sanitized).is(sanitized)
+        !new ObjectMapper().writeValueAsString(sanitized).contains('"sanitized"')
+    }
+
+    def "reports whether it was created with a configuration"() {
+        def sanitizer = new Sanitizer(['mykey1'], REGEX)
+
+        expect:
+        sanitizer.isConfiguredWith(['mykey1'], REGEX)
+        !sanitizer.isConfiguredWith(['mykey1', 'mykey2'], REGEX)
+        !sanitizer.isConfiguredWith(['mykey1'], '.*')
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import spock.lang.Specification
+
+class StackTraceFingerprintsTest extends Specification {
+
+    def "identical stack traces are only kept once"() {
+        def fingerprints = new StackTraceFingerprints(50)
+
+        when:
+        def results = (1..3).collect { fingerprints.failure(fail("connection refused $it")) }
+
+        then:
+        results.every { it.status == Result.ResultStatus.FAILURE }
+        results[0].failures[0].contains('\tat ')
+        !results[1].failures[0].contains('\tat ')
+        results[1].failures[0].startsWith('java.io.IOException: connection refused 2')
+        fingerprints.fingerprints.size() == 1
+        fingerprints.fingerprints[0].count == 3
+        results.every { it.failures[0].contains(fingerprints.fingerprints[0].fingerprint) }
+    }
+
+    def "different stack traces have different fingerprints"() {
+        expect:
+        StackTraceFingerprints.fingerprint(fail('a')) != StackTraceFingerprints.fingerprint(new IllegalStateException('a'))
+    }
+
+    def "stack trace depth is capped"() {
+        def fingerprints = new StackTraceFingerprints(2)
+        def failure = new RuntimeException('outer', fail('inner'))
+
+        when:
+        def trace = fingerprints.failure(failure).failures[0]
+
+        then:
+        trace.readLines().count { it.startsWith('\tat ') } == 4
+        trace.contains('Caused by: java.io.IOException: inner')
+        trace.contains(' more')
+    }
+
+    private static Throwable fail(String message) {
+        // created at the same line, so every failure has the same stack trace
+        new IOException(message)
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import org.gradle.api.tasks.TaskState
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+class TaskTimingsTest extends Specification {
+
+    def "records task timings and results"() {
+        def timings = new TaskTimings()
+        def failure = new RuntimeException('boom')
+        def busy = Stub(TaskState) {
+            getDidWork() >> true
+        }
+        def failed = Stub(TaskState) {
+            getDidWork() >> true
+            getFailure() >> failure
+        }
+        def noWork = Stub(TaskState) {
+            getDidWork() >> false
+        }
+
+        when:
+        def a = timings.id(':', ':a')
+        def b = timings.id(':sub', ':sub:b')
+        def c = timings.id(':sub', ':sub:c')
+        timings.started(a, 100)
+        timings.completed(a, 150, busy)
+        timings.started(b, 100)
+        timings.completed(b, 110, failed)
+        timings.started(c, 110)
+        timings.completed(c, 130, noWork)
+
+        then:
+        timings.id(':', ':a') == a
+        timings.size() == 3
+        timings.getPath(b) == ':sub:b'
+        timings.getProjectPath(b) == ':sub'
+        timings.getStartTime(c) == 110
+        timings.getElapsedTime(a) == 50
+        timings.getTotalElapsedTime() == 80
+        timings.getResult(a).status == Result.ResultStatus.SUCCESS
+        timings.getResult(b).status == Result.ResultStatus.FAILURE
+        timings.getResult(c).status == Result.ResultStatus.SKIPPED
+    }
+
+    def "groups tasks by project, slowest first"() {
+        def timings = new TaskTimings()
+
+        when:
+        [[':', ':a', 10], [':sub', ':sub:b', 30], [':', ':c', 25], [':sub', ':sub:d', 30]].each { project, path, elapsed ->
+            def id = timings.id(project, path)
+            timings.started(id, 0)
+            timings.completed(id, elapsed, null)
+        }
+        def byProject = timings.getTaskIdsByProject()
+
+        then:
+        byProject.keySet() as List == [':sub', ':']
+        byProject[':sub'].collect { timings.getPath(it) } == [':sub:b', ':sub:d']
+        byProject[':'].collect { timings.getPath(it) } == [':c', ':a']
+    }
+
+    def "provides the slowest tasks"() {
+        def timings = new TaskTimings()
+
+        when:
+        [[':a', 10], [':b', 30], [':c', 20], [':d', 30]].each { path, elapsed ->
+            def id = timings.id(':', path)
+            timings.started(id, 0)
+            timings.completed(id, elapsed, null)
+        }
+        timings.started(timings.id(':', ':running'), 0)
+
+        then:
+        timings.getSlowestTaskIds(3).collect { timings.getPath(it) } == [':b', ':d', ':c']
+    }
+
+    def "grows beyond a single chunk"() {
+        def timings = new TaskTimings()
+
+        when:
+        def ids = (0..<3000).collect { timings.id(':', ":task$it") }
+
+        then:
+        ids == (0..<3000).toList()
+        timings.getPath(2999) == ':task2999'
+    }
+
+    def "assigns unique ids to tasks started concurrently"() {
+        def timings = new TaskTimings()
+        def threads = 8
+        def tasksPerThread = 2000
+        def ready = new CountDownLatch(threads)
+        def pool = Executors.newFixedThreadPool(threads)
+
+        when:
+        def futures = (0..<threads).collect { thread ->
+            pool.submit({
+                ready.countDown()
+                ready.await()
+                (0..<tasksPerThread).collect { timings.id(":p$thread", ":p$thread:task$it") }
+            } as Callable<List<Integer>>)
+        }
+        def ids = futures.collectMany { it.get() }
+        pool.shutdown()
+
+        then:
+        timings.size() == threads * tasksPerThread
+        ids.toSet() == (0..<threads * tasksPerThread).toSet()
+        ids.every { id -> timings.getPath(id).startsWith(timings.getProjectPath(id) + ':task') }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import spock.lang.Specification
+
+class TopNTest extends Specification {
+
+    def "keeps the largest elements, largest first"() {
+        def top = new TopN<Integer>(3, Comparator.naturalOrder())
+
+        when:
+        def evicted = [5, 1, 9, 3, 7, 2].collect { top.offer(it) }
+
+        then:
+        top.get() == [9, 7, 5]
+        evicted == [null, null, null, 1, 3, 2]
+    }
+
+    def "a limit of zero keeps nothing"() {
+        def top = new TopN<Integer>(0, Comparator.naturalOrder())
+
+        expect:
+        top.offer(1) == 1
+        top.get().isEmpty()
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nebula.plugin.metrics.model
+
+import org.gradle.StartParameter
+import spock.lang.Specification
+
+class WorkerUtilizationTest extends Specification {
+
+    def "measures busy and idle time per worker thread"() {
+        def startParameter = new StartParameter()
+        startParameter.maxWorkerCount = 4
+        def metrics = new BuildMetrics(startParameter)
+        def timings = metrics.taskTimings
+
+        when:
+        runOn('worker-1') { record(timings, ':a', 1000, 1600) }
+        runOn('worker-2') {
+            record(timings, ':b', 1000, 1200)
+            metrics.getDependencySetProfile(':b:compileClasspath').setWorker('worker-2').setStart(1100).setFinish(1300)
+        }
+        def utilization = WorkerUtilization.create(metrics)
+
+        then:
+        utilization.maxWorkers == 4
+        utilization.windowTime == 600
+        utilization.workers*.name == ['worker-1', 'worker-2']
+        utilization.workers[0].busyTime == 600
+        utilization.workers[0].idleTime == 0
+        utilization.workers[1].busyTime == 300
+        utilization.workers[1].idleTime == 300
+        utilization.workers[1].utilization == 0.5d
+        utilization.workers[1].taskCount == 1
+        utilization.workers[1].resolutionCount == 1
+    }
+
+    private static void runOn(String name, Closure action) {
+        def thread = new Thread(action, name)
+        thread.start()
+        thread.join()
+    }
+
+    private static void record(TaskTimings timings, String path, long start, long finish) {
+        def id = timings.id(':', path)
+        timings.started(id, start)
+        timings.completed(id, finish, null)
+    }
+}